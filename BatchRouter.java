@@ -0,0 +1,279 @@
+/*****************************************************************
+  * BatchRouter.java
+  *
+  * Routes every origin/destination pair in a query file and writes the
+  * results as CSV, for nightly analytics over millions of routes.
+  *
+  * Each input line holds a start and an end node name separated by a
+  * comma or whitespace; blank lines and lines starting with # are skipped.
+  * Each output row is
+  *
+  *   line,from,to,distance,nodes,error
+  *
+  * where line is the input line number, distance is in meters (empty if
+  * there is no path), nodes are the node names along the path separated
+  * by ';', and error says why a pair could not be routed.
+  *
+  * One thread reads pairs, a pool of workers routes them, each with its
+  * own SearchContext, and one thread writes rows in input order as soon
+  * as they are ready. At most maxInFlight pairs are between reader and
+  * writer at any time, so memory stays bounded however large the input.
+  *
+  * Usage: java WendyGraph batch mapFile queryFile outFile|- [workers] [mode]
+  ****************************************************************/
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class BatchRouter {
+
+  private final WendyGraph graph;
+  private final int workerCount;
+  private final RouteMode mode;
+  private final int maxInFlight;
+  private final LatencyHistogram latency = new LatencyHistogram();
+
+  //results of the last run
+  private long routed, failed;
+  private double seconds;
+
+  private static final Query END = new Query( -1, 0, null, null ); //tells a worker there are no more pairs
+
+  /*
+   * @param graph - the graph to route on
+   * @param workerCount - number of routes to compute at once
+   * @param mode - the search algorithm to use
+   * @param maxInFlight - most pairs read but not yet written at any time
+   */
+  public BatchRouter( WendyGraph graph, int workerCount, RouteMode mode, int maxInFlight ) {
+    this.graph = graph;
+    this.workerCount = workerCount;
+    this.mode = mode;
+    this.maxInFlight = maxInFlight;
+  }
+
+  /*
+   * Routes every pair read from in and writes one CSV row per pair to out.
+   *
+   * @param in - the query lines
+   * @param out - where the CSV goes; flushed but not closed
+   */
+  public void run( final BufferedReader in, Writer out ) throws IOException {
+    final Semaphore inFlight = new Semaphore( maxInFlight );
+    final BlockingQueue<Query> pending = new ArrayBlockingQueue<Query>( maxInFlight + workerCount );
+    final BlockingQueue<Query> done = new LinkedBlockingQueue<Query>(); //never holds more than maxInFlight + 1
+    final IOException[] readError = new IOException[1];
+    latency.clear();
+    routed = failed = 0;
+    long start = System.nanoTime();
+
+    //reader: numbers the pairs and hands them to the workers, then tells the writer how many there were
+    Thread reader = new Thread( "batch-reader" ) {
+      public void run() {
+        long seq = 0;
+        try {
+          String line;
+          int lineNumber = 0;
+          while( (line = in.readLine()) != null ) {
+            lineNumber++;
+            line = line.trim();
+            if( line.isEmpty() || line.startsWith( "#" ) ) continue;
+            String[] names = line.split( "\\s*,\\s*|\\s+" );
+            inFlight.acquire();
+            pending.put( new Query( seq++, lineNumber, names[0], names.length > 1 ? names[1] : null ) );
+          }
+        } catch( IOException e ) {
+          readError[0] = e;
+        } catch( InterruptedException e ) {
+          //stopped by the writer after an output error
+        }
+        try {
+          for( int i = 0; i < workerCount; i++ )
+            pending.put( END );
+          done.put( new Query( seq, 0, null, null ) ); //the count of pairs, not a pair
+        } catch( InterruptedException e ) {
+          //stopped by the writer after an output error
+        }
+      }
+    };
+
+    Thread[] workers = new Thread[workerCount];
+    for( int i = 0; i < workerCount; i++ ) {
+      workers[i] = new Thread( "batch-worker-" + (i + 1) ) {
+        public void run() {
+          SearchContext ctx = graph.newSearchContext();
+          try {
+            Query q;
+            while( (q = pending.take()) != END ) {
+              long t = System.nanoTime();
+              route( ctx, q );
+              latency.record( System.nanoTime() - t );
+              done.put( q );
+            }
+          } catch( InterruptedException e ) {
+            //stopped by the writer after an output error
+          }
+        }
+      };
+      workers[i].setDaemon( true );
+      workers[i].start();
+    }
+    reader.setDaemon( true );
+    reader.start();
+
+    //writer: this thread, holding back rows that finish before earlier ones
+    HashMap<Long, Query> early = new HashMap<Long, Query>();
+    long next = 0, total = Long.MAX_VALUE;
+    try {
+      out.write( "line,from,to,distance,nodes,error\n" );
+      while( next < total ) {
+        Query q = done.take();
+        if( q.from == null ) {
+          total = q.seq;
+          continue;
+        }
+        early.put( q.seq, q );
+        while( (q = early.remove( next )) != null ) {
+          out.write( q.row );
+          if( q.failed ) failed++; else routed++;
+          inFlight.release();
+          next++;
+        }
+      }
+      out.flush();
+    } catch( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException( "Batch interrupted after " + next + " pairs" );
+    } finally {
+      seconds = (System.nanoTime() - start) / 1E9;
+      if( next < total ) {
+        reader.interrupt();
+        for( Thread w : workers )
+          w.interrupt();
+      }
+    }
+    if( readError[0] != null )
+      throw readError[0];
+  }
+
+  /*
+   * Routes one pair and fills in its CSV row.
+   */
+  private void route( SearchContext ctx, Query q ) {
+    String error = null;
+    ArrayList<Node> path = null;
+    Node from = graph.getNode( q.from );
+    Node to = q.to == null ? null : graph.getNode( q.to );
+    if( q.to == null )
+      error = "missing end node";
+    else if( from == null )
+      error = "no node named " + q.from;
+    else if( to == null )
+      error = "no node named " + q.to;
+    else {
+      try {
+        path = graph.route( ctx, q.from, q.to, mode );
+        if( path.get( 0 ) != from )
+          error = "no path";
+      } catch( RuntimeException e ) {
+        error = e.toString();
+      }
+    }
+
+    StringBuilder row = new StringBuilder();
+    row.append( q.line ).append( ',' ).append( csv( q.from ) ).append( ',' ).append( csv( q.to == null ? "" : q.to ) )
+       .append( ',' );
+    if( error == null ) {
+      row.append( String.format( Locale.ROOT, "%.2f", graph.getPathLength( path ) ) ).append( ',' );
+      StringBuilder nodes = new StringBuilder();
+      for( int i = 0; i < path.size(); i++ ) {
+        if( i > 0 ) nodes.append( ';' );
+        nodes.append( path.get( i ).getName() );
+      }
+      row.append( csv( nodes.toString() ) ).append( ",\n" );
+    } else {
+      row.append( ",," ).append( csv( error ) ).append( '\n' );
+    }
+    q.row = row.toString();
+    q.failed = error != null;
+  }
+
+  /*
+   * @return s quoted for CSV if it needs to be
+   */
+  private static String csv( String s ) {
+    if( s.indexOf( ',' ) < 0 && s.indexOf( '"' ) < 0 && s.indexOf( '\n' ) < 0 )
+      return s;
+    return "\"" + s.replace( "\"", "\"\"" ) + "\"";
+  }
+
+  /* @return the number of pairs routed by the last run */
+  public long getRouted() {
+    return routed;
+  }
+
+  /* @return the number of pairs of the last run that had no path or a bad name */
+  public long getFailed() {
+    return failed;
+  }
+
+  /* @return the latencies of the routes of the last run */
+  public LatencyHistogram getLatency() {
+    return latency;
+  }
+
+  /*
+   * @return pairs per second, time and latency percentiles of the last run in one line
+   */
+  public String toString() {
+    long pairs = routed + failed;
+    return String.format( "%d pairs (%d failed) in %.2f s, %.0f pairs/s; latency %s", pairs, failed, seconds,
+                          seconds > 0 ? pairs / seconds : 0, latency );
+  }
+
+  /*
+   * One origin/destination pair on its way from reader to writer.
+   */
+  private static class Query {
+    final long seq; //position among the pairs, so rows are written in input order
+    final int line; //input line number
+    final String from, to;
+    String row; //the CSV row, once routed
+    boolean failed; //whether row holds an error instead of a path
+
+    Query( long seq, int line, String from, String to ) {
+      this.seq = seq;
+      this.line = line;
+      this.from = from;
+      this.to = to;
+    }
+  }
+
+  /*
+   * Runs a batch from the command line; the summary goes to System.err
+   * so the CSV can be written to System.out.
+   */
+  public static void main( String[] args ) throws IOException {
+    if( args.length < 3 ) {
+      System.err.println( "Usage: java WendyGraph batch mapFile queryFile outFile|- [workers] [mode]" );
+      return;
+    }
+    int workerCount = args.length > 3 ? Integer.parseInt( args[3] ) : Runtime.getRuntime().availableProcessors();
+    RouteMode mode = args.length > 4 ? RouteMode.valueOf( args[4].toUpperCase() ) : RouteMode.BIDIRECTIONAL;
+
+    WendyGraph graph = WendyGraph.load( args[0] );
+    graph.setMetrics( new RoutingMetrics() );
+    BatchRouter batch = new BatchRouter( graph, workerCount, mode, 1024 * workerCount );
+    BufferedReader in = new BufferedReader( new FileReader( args[1] ), 1 << 16 );
+    Writer out = new BufferedWriter( args[2].equals( "-" ) ? new OutputStreamWriter( System.out )
+                                                           : new FileWriter( args[2] ), 1 << 16 );
+    try {
+      batch.run( in, out );
+    } finally {
+      in.close();
+      if( args[2].equals( "-" ) ) out.flush(); else out.close();
+    }
+    System.err.println( batch );
+    System.err.print( graph.getMetrics() );
+  }
+}
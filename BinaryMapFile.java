@@ -0,0 +1,214 @@
+/*****************************************************************
+  * BinaryMapFile.java
+  *
+  * A compact binary file format for WendyGraph maps, and a converter
+  * from the text format read by the WendyGraph constructor.
+  *
+  * The file is opened with FileChannel.map and every section is copied
+  * straight into primitive arrays, so loading does no parsing and no name
+  * lookups; only the node names have to be decoded into Strings.
+  *
+  * File layout (big-endian):
+  *   int magic, int version, int nodeCount, int edgeCount, int nameBytes
+  *   int[nodeCount + 1] start of each name in the string table
+  *   byte[nameBytes] string table (UTF-8 names, back to back), padded to 8 bytes
+  *   double[nodeCount] latitudes
+  *   double[nodeCount] longitudes
+  *   double[edgeCount] edge lengths
+  *   int[edgeCount] first vertex of each edge
+  *   int[edgeCount] second vertex of each edge
+  *   int[nodeCount + 1] CSR offsets: first arc of each vertex
+  *   int[2 * edgeCount] CSR arcs: edge of each arc
+  *   byte[nodeCount] 1 for buildings, 0 for intersections
+  *
+  * Usage: java BinaryMapFile textMapFile binaryMapFile
+  ****************************************************************/
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class BinaryMapFile {
+
+  private static final int FILE_MAGIC = 0x574d4150; //"WMAP"
+  private static final int FILE_VERSION = 1;
+  private static final int HEADER_BYTES = 5 * 4;
+
+  /*
+   * Writes a graph in the binary format.
+   * @param w - the graph to write
+   * @param file - the file to write
+   */
+  public static void write( WendyGraph w, File file ) throws IOException {
+    CompactGraph g = w.compact();
+    int n = g.nodeCount;
+
+    //number the edges in the order they are first met
+    IdentityHashMap<Edge, Integer> edgeIds = new IdentityHashMap<Edge, Integer>();
+    ArrayList<Edge> edgeList = new ArrayList<Edge>();
+    int[] arcEdges = new int[g.arcCount()];
+    for( int a = 0; a < g.arcCount(); a++ ) {
+      Integer id = edgeIds.get( g.edges[a] );
+      if( id == null ) {
+        id = edgeList.size();
+        edgeIds.put( g.edges[a], id );
+        edgeList.add( g.edges[a] );
+      }
+      arcEdges[a] = id;
+    }
+    int m = edgeList.size();
+
+    //vertex ids of the edge ends
+    IdentityHashMap<Node, Integer> nodeIds = new IdentityHashMap<Node, Integer>( n );
+    for( int v = 0; v < n; v++ )
+      nodeIds.put( w.vertices.get( v ), v );
+
+    byte[][] names = new byte[n][];
+    int nameBytes = 0;
+    for( int v = 0; v < n; v++ ) {
+      names[v] = w.vertices.get( v ).getName().getBytes( StandardCharsets.UTF_8 );
+      nameBytes += names[v].length;
+    }
+
+    DataOutputStream out = new DataOutputStream(
+                             new BufferedOutputStream( new FileOutputStream( file ), 1 << 16 ) );
+    try {
+      out.writeInt( FILE_MAGIC );
+      out.writeInt( FILE_VERSION );
+      out.writeInt( n );
+      out.writeInt( m );
+      out.writeInt( nameBytes );
+
+      int start = 0;
+      for( int v = 0; v < n; v++ ) {
+        out.writeInt( start );
+        start += names[v].length;
+      }
+      out.writeInt( start );
+      for( int v = 0; v < n; v++ )
+        out.write( names[v] );
+      for( int i = 0; i < padding( HEADER_BYTES + 4 * (n + 1) + nameBytes ); i++ )
+        out.writeByte( 0 );
+
+      for( int v = 0; v < n; v++ )
+        out.writeDouble( g.lat[v] );
+      for( int v = 0; v < n; v++ )
+        out.writeDouble( g.lon[v] );
+      for( Edge e : edgeList )
+        out.writeDouble( e.getLength() );
+      for( Edge e : edgeList )
+        out.writeInt( nodeIds.get( e.getNode1() ) );
+      for( Edge e : edgeList )
+        out.writeInt( nodeIds.get( e.getNode2() ) );
+      for( int v = 0; v <= n; v++ )
+        out.writeInt( g.offsets[v] );
+      for( int a = 0; a < arcEdges.length; a++ )
+        out.writeInt( arcEdges[a] );
+      for( int v = 0; v < n; v++ )
+        out.writeByte( w.vertices.get( v ).getisBuilding() ? 1 : 0 );
+    } finally {
+      out.close();
+    }
+  }
+
+  /*
+   * Loads a graph from a file written by write.
+   * @param file - the file to read
+   * @return the graph
+   */
+  public static WendyGraph read( File file ) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile( file, "r" );
+    MappedByteBuffer data;
+    try {
+      data = raf.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, raf.length() );
+    } finally {
+      raf.close(); //the mapping stays valid after the channel is closed
+    }
+
+    if( data.getInt() != FILE_MAGIC )
+      throw new IOException( file + " is not a binary map file" );
+    int version = data.getInt();
+    if( version != FILE_VERSION )
+      throw new IOException( file + " has unsupported map file version " + version );
+    int n = data.getInt();
+    int m = data.getInt();
+    int nameBytes = data.getInt();
+
+    int[] nameStarts = new int[n + 1];
+    data.asIntBuffer().get( nameStarts );
+    data.position( data.position() + 4 * (n + 1) );
+    byte[] nameTable = new byte[nameBytes];
+    data.get( nameTable );
+    data.position( data.position() + padding( data.position() ) );
+    String[] names = new String[n];
+    for( int v = 0; v < n; v++ )
+      names[v] = new String( nameTable, nameStarts[v], nameStarts[v + 1] - nameStarts[v],
+                             StandardCharsets.UTF_8 );
+
+    double[] lat = new double[n];
+    double[] lon = new double[n];
+    double[] edgeLength = new double[m];
+    data.asDoubleBuffer().get( lat ).get( lon ).get( edgeLength );
+    data.position( data.position() + 8 * (2 * n + m) );
+
+    int[] edgeFrom = new int[m];
+    int[] edgeTo = new int[m];
+    int[] offsets = new int[n + 1];
+    int[] arcEdges = new int[2 * m];
+    data.asIntBuffer().get( edgeFrom ).get( edgeTo ).get( offsets ).get( arcEdges );
+    data.position( data.position() + 4 * (2 * m + n + 1 + 2 * m) );
+
+    boolean[] building = new boolean[n];
+    for( int v = 0; v < n; v++ )
+      building[v] = data.get() != 0;
+
+    return new WendyGraph( names, lat, lon, building, n, edgeFrom, edgeTo, edgeLength, m,
+                           offsets, arcEdges );
+  }
+
+  /*
+   * @param file - a file
+   * @return true if the file starts like a binary map file
+   */
+  public static boolean isBinaryMapFile( File file ) {
+    try {
+      DataInputStream in = new DataInputStream( new FileInputStream( file ) );
+      try {
+        return in.readInt() == FILE_MAGIC;
+      } finally {
+        in.close();
+      }
+    } catch( IOException e ) {
+      return false;
+    }
+  }
+
+  /*
+   * @return number of zero bytes to add after position to reach a multiple of 8
+   */
+  private static int padding( int position ) {
+    return (8 - position % 8) % 8;
+  }
+
+  /* Converter from the text format to the binary format. */
+  public static void main( String[] args ) throws IOException {
+    if( args.length != 2 ) {
+      System.err.println( "Usage: java BinaryMapFile textMapFile binaryMapFile" );
+      return;
+    }
+
+    long start = System.nanoTime();
+    WendyGraph w = new WendyGraph( args[0] );
+    long parsed = System.nanoTime();
+    write( w, new File( args[1] ) );
+    long written = System.nanoTime();
+    WendyGraph loaded = read( new File( args[1] ) );
+    long read = System.nanoTime();
+
+    System.out.printf( "%s: %d vertices, parsed in %.1f ms%n", args[0], w.vertices.size(),
+                      (parsed - start) / 1E6 );
+    System.out.printf( "%s: written in %.1f ms, loaded in %.1f ms (%d vertices)%n", args[1],
+                      (written - parsed) / 1E6, (read - written) / 1E6, loaded.vertices.size() );
+  }
+}
@@ -0,0 +1,298 @@
+/*****************************************************************
+  * BuildingDistanceTable.java
+  *
+  * Precomputed shortest paths between every pair of buildings.
+  *
+  * The precompute stage runs one search from every building and writes a
+  * binary file holding the distance between every two buildings and the
+  * shortest path tree (the parent of every vertex) of each building. The
+  * file is opened with FileChannel.map, so loading it reads nothing but the
+  * header, and a building-to-building route is read straight out of the
+  * mapped parent array in O(path length) with no search at all.
+  *
+  * When an edge is closed or reweighted after the table was written, only
+  * the rows (start buildings) whose trees the change can affect are marked
+  * stale, and WendyGraph searches for routes from those buildings instead.
+  *
+  * File layout (big-endian):
+  *   int magic, int version, int nodeCount, int arcCount, long checksum, int buildingCount
+  *   int[buildingCount] vertex id of each building
+  *   int[nodeCount] row of each vertex (-1 if not a building)
+  *   float[buildingCount * buildingCount] distances
+  *   int[buildingCount * nodeCount] parent of each vertex in each building's tree
+  *
+  * Usage: java BuildingDistanceTable [mapFile] [tableFile]
+  ****************************************************************/
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+public class BuildingDistanceTable {
+
+  private static final int FILE_MAGIC = 0x57424454; //"WBDT"
+  private static final int FILE_VERSION = 2;
+  private static final int HEADER_BYTES = 5 * 4 + 8;
+
+  private final int nodeCount; //number of vertices of the graph
+  private final int arcCount; //number of arcs of the graph, to check the file matches
+  private final long checksum; //CompactGraph.checksum() of the graph, to check the file matches
+  private final int buildingCount; //number of buildings (rows)
+  private final IntBuffer buildings; //vertex id of each row
+  private final IntBuffer rows; //row of each vertex, or -1
+  private final FloatBuffer distances; //distance between each two rows
+  private final IntBuffer parents; //parent of each vertex in each row's tree
+  private final boolean[] stale; //true for rows an edge change may have made wrong
+  private int staleCount; //number of stale rows
+
+  /*
+   * Creates a table over a mapped file.
+   */
+  private BuildingDistanceTable( ByteBuffer data ) throws IOException {
+    if( data.getInt( 0 ) != FILE_MAGIC )
+      throw new IOException( "Not a building distance table" );
+    if( data.getInt( 4 ) != FILE_VERSION )
+      throw new IOException( "Unsupported building distance table version " + data.getInt( 4 ) );
+    nodeCount = data.getInt( 8 );
+    arcCount = data.getInt( 12 );
+    checksum = data.getLong( 16 );
+    buildingCount = data.getInt( 24 );
+
+    int position = HEADER_BYTES;
+    buildings = slice( data, position, buildingCount * 4 ).asIntBuffer();
+    position += buildingCount * 4;
+    rows = slice( data, position, nodeCount * 4 ).asIntBuffer();
+    position += nodeCount * 4;
+    distances = slice( data, position, buildingCount * buildingCount * 4 ).asFloatBuffer();
+    position += buildingCount * buildingCount * 4;
+    parents = slice( data, position, buildingCount * nodeCount * 4 ).asIntBuffer();
+    stale = new boolean[buildingCount];
+  }
+
+  /*
+   * @return a view of length bytes of data starting at position
+   */
+  private static ByteBuffer slice( ByteBuffer data, int position, int length ) {
+    ByteBuffer b = data.duplicate();
+    b.position( position );
+    b.limit( position + length );
+    return b.slice();
+  }
+
+  /*
+   * Runs one search from every building of the graph and writes the table file.
+   * The searches ignore closed and reweighted edges, so the table fits the map
+   * its checksum names; WendyGraph.setBuildingTable marks the rows they affect
+   * as stale. Only one tree is held in memory at a time.
+   *
+   * @param w - the graph
+   * @param file - the file to write
+   */
+  public static void write( WendyGraph w, File file ) throws IOException {
+    CompactGraph g = w.compact().base(); //every edge open, as the checksum describes
+    int n = g.nodeCount;
+
+    int[] rowOf = new int[n];
+    Arrays.fill( rowOf, -1 );
+    int b = 0;
+    for( int v = 0; v < n; v++ ) {
+      if( w.vertices.get( v ).getisBuilding() )
+        rowOf[v] = b++;
+    }
+    int[] buildingIds = new int[b];
+    for( int v = 0; v < n; v++ ) {
+      if( rowOf[v] != -1 )
+        buildingIds[rowOf[v]] = v;
+    }
+
+    long size = HEADER_BYTES + 4L * b + 4L * n + 4L * b * b + 4L * b * n;
+    if( size > Integer.MAX_VALUE )
+      throw new IOException( "Building distance table would be too large to map (" + size + " bytes)" );
+
+    RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+    try {
+      raf.setLength( 0 );
+      FileChannel channel = raf.getChannel();
+      ByteBuffer header = ByteBuffer.allocate( HEADER_BYTES + 4 * b + 4 * n );
+      header.putInt( FILE_MAGIC ).putInt( FILE_VERSION ).putInt( n ).putInt( g.arcCount() ).putLong( g.checksum() ).putInt( b );
+      for( int i = 0; i < b; i++ )
+        header.putInt( buildingIds[i] );
+      for( int v = 0; v < n; v++ )
+        header.putInt( rowOf[v] );
+      header.flip();
+      channel.write( header, 0 );
+
+      long distanceStart = HEADER_BYTES + 4L * b + 4L * n;
+      long parentStart = distanceStart + 4L * b * b;
+      ByteBuffer distanceRow = ByteBuffer.allocate( 4 * b );
+      ByteBuffer parentRow = ByteBuffer.allocate( 4 * n );
+      SearchContext ctx = new SearchContext( n );
+      for( int i = 0; i < b; i++ ) {
+        WendyGraph.dijkstra( g, ctx, buildingIds[i], -1 );
+
+        distanceRow.clear();
+        for( int j = 0; j < b; j++ )
+          distanceRow.putFloat( (float)ctx.distance( buildingIds[j] ) );
+        distanceRow.flip();
+        channel.write( distanceRow, distanceStart + 4L * b * i );
+
+        parentRow.clear();
+        for( int v = 0; v < n; v++ )
+          parentRow.putInt( ctx.parent( v ) );
+        parentRow.flip();
+        channel.write( parentRow, parentStart + 4L * n * i );
+      }
+    } finally {
+      raf.close();
+    }
+  }
+
+  /*
+   * Maps a table file written by write.
+   * @param file - the file to open
+   * @return the table, backed by the mapped file
+   */
+  public static BuildingDistanceTable open( File file ) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile( file, "r" );
+    try {
+      if( raf.length() > Integer.MAX_VALUE )
+        throw new IOException( file + " is too large to map" );
+      MappedByteBuffer data = raf.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, raf.length() );
+      return new BuildingDistanceTable( data );
+    } finally {
+      raf.close(); //the mapping stays valid after the channel is closed
+    }
+  }
+
+  /*
+   * @param g - compressed adjacency arrays
+   * @return true if this table was computed for a graph of the same shape and lengths
+   */
+  public boolean matches( CompactGraph g ) {
+    return g.nodeCount == nodeCount && g.arcCount() == arcCount && g.checksum() == checksum;
+  }
+
+  /*
+   * @return the number of buildings in the table
+   */
+  public int size() {
+    return buildingCount;
+  }
+
+  /*
+   * @param v - a vertex id
+   * @return true if v is one of the buildings in the table
+   */
+  public boolean contains( int v ) {
+    return rows.get( v ) != -1;
+  }
+
+  /*
+   * @param from - vertex id of a building
+   * @param to - vertex id of another building
+   * @return the length of the shortest path, or Double.MAX_VALUE if there is none
+   */
+  public double distance( int from, int to ) {
+    float d = distances.get( rows.get( from ) * buildingCount + rows.get( to ) );
+    return d == Float.POSITIVE_INFINITY ? Double.MAX_VALUE : d;
+  }
+
+  /*
+   * Reads a shortest path from the tree of the start building.
+   *
+   * @param from - vertex id of the start building
+   * @param to - vertex id of the end building
+   * @return the vertex ids along the path, or just {to} if there is no path
+   */
+  public int[] path( int from, int to ) {
+    int base = rows.get( from ) * nodeCount;
+    int length = 1;
+    for( int v = to; parents.get( base + v ) != -1 && parents.get( base + v ) != v; v = parents.get( base + v ) )
+      length++;
+
+    int[] path = new int[length];
+    int v = to;
+    for( int i = length - 1; i >= 0; i-- ) {
+      path[i] = v;
+      v = parents.get( base + v );
+    }
+    return path;
+  }
+
+  /*
+   * @param from - vertex id of a building
+   * @return true if an edge change since the table was written may have changed
+   *         the shortest paths from this building
+   */
+  public synchronized boolean isStale( int from ) {
+    return stale[rows.get( from )];
+  }
+
+  /*
+   * @return the number of buildings whose rows are stale
+   */
+  public synchronized int getStaleCount() {
+    return staleCount;
+  }
+
+  /*
+   * Marks the rows an edge change may affect as stale. A row is affected if the
+   * edge is in its tree, or if the edge got shorter and now gives a shorter way
+   * to one of its ends. The distance to an end is added up along the tree, whose
+   * edges cannot have changed since the row is not stale.
+   *
+   * @param g - the graph with the new length in place
+   * @param u - vertex id of one end of the edge
+   * @param v - vertex id of the other end
+   * @param oldLength - the length of the edge before the change
+   * @param newLength - the length of the edge after the change
+   */
+  public synchronized void edgeChanged( CompactGraph g, int u, int v, double oldLength, double newLength ) {
+    for( int r = 0; r < buildingCount; r++ ) {
+      if( stale[r] ) continue;
+      int base = r * nodeCount;
+      boolean affected = parents.get( base + v ) == u || parents.get( base + u ) == v;
+      if( !affected && newLength < oldLength ) {
+        double du = treeDistance( g, base, u );
+        double dv = treeDistance( g, base, v );
+        affected = du + newLength < dv || dv + newLength < du;
+      }
+      if( affected ) {
+        stale[r] = true;
+        staleCount++;
+      }
+    }
+  }
+
+  /*
+   * @return the length of the tree path to v in the tree starting at parent index base,
+   *         or Double.MAX_VALUE if v is not in the tree
+   */
+  private double treeDistance( CompactGraph g, int base, int v ) {
+    if( parents.get( base + v ) == -1 )
+      return Double.MAX_VALUE;
+    double d = 0;
+    for( int p = parents.get( base + v ); p != v; v = p, p = parents.get( base + v ) ) {
+      double step = Double.MAX_VALUE;
+      for( int a = g.offsets[v]; a < g.offsets[v + 1]; a++ ) {
+        if( g.targets[a] == p )
+          step = Math.min( step, g.lengths[a] );
+      }
+      d += step;
+    }
+    return d;
+  }
+
+  /* Precompute stage: writes the table for a map file. */
+  public static void main( String[] args ) throws IOException {
+    String mapFile = args.length > 0 ? args[0] : "wellesleycoord.txt";
+    String tableFile = args.length > 1 ? args[1] : "buildings.wbdt";
+
+    WendyGraph w = new WendyGraph( mapFile );
+    long start = System.nanoTime();
+    write( w, new File( tableFile ) );
+    BuildingDistanceTable table = open( new File( tableFile ) );
+    System.out.printf( "Wrote %s: %d buildings in %.1f ms%n", tableFile, table.size(),
+                      (System.nanoTime() - start) / 1E6 );
+  }
+}
@@ -0,0 +1,121 @@
+/*****************************************************************
+  * CompactGraph.java
+  *
+  * Compressed (CSR) adjacency representation of a WendyGraph.
+  *
+  * Every vertex is identified by its int index in WendyGraph.vertices.
+  * The neighbours of vertex u are targets[offsets[u]] .. targets[offsets[u+1]-1],
+  * and lengths[a] / edges[a] hold the length and the original Edge of arc a.
+  * Since edges are undirected, each Edge appears as two arcs, one per endpoint.
+  *
+  * Built once by WendyGraph.compact() and never modified afterwards, so it can
+  * be read by any number of searches at the same time. Closing or reweighting
+  * an edge makes a new CompactGraph that shares everything but the lengths.
+  ****************************************************************/
+public class CompactGraph {
+
+  public final int nodeCount; //number of vertices
+  public final int[] offsets; //first arc of each vertex, length nodeCount + 1
+  public final int[] targets; //head vertex of each arc
+  public final double[] lengths; //length in meters of each arc, infinite if closed
+  public final double[] baseLengths; //length of each arc before any closure or reweighting
+  public final Edge[] edges; //Edge each arc was built from
+  public final double[] lat; //latitude of each vertex
+  public final double[] lon; //longitude of each vertex
+
+  /*
+   * Creates a CompactGraph from already built arrays.
+   * @param offsets - first arc of each vertex, with offsets[nodeCount] = number of arcs
+   * @param targets - head vertex of each arc
+   * @param lengths - length of each arc
+   * @param edges - the Edge each arc was built from
+   * @param lat - latitude of each vertex
+   * @param lon - longitude of each vertex
+   */
+  public CompactGraph( int[] offsets, int[] targets, double[] lengths, Edge[] edges,
+                       double[] lat, double[] lon ) {
+    this( offsets, targets, lengths, lengths, edges, lat, lon );
+  }
+
+  /*
+   * Creates a CompactGraph whose current arc lengths differ from the lengths of its edges.
+   * @param offsets - first arc of each vertex, with offsets[nodeCount] = number of arcs
+   * @param targets - head vertex of each arc
+   * @param lengths - current length of each arc
+   * @param baseLengths - length of each arc before closures and reweighting
+   * @param edges - the Edge each arc was built from
+   * @param lat - latitude of each vertex
+   * @param lon - longitude of each vertex
+   */
+  public CompactGraph( int[] offsets, int[] targets, double[] lengths, double[] baseLengths,
+                       Edge[] edges, double[] lat, double[] lon ) {
+    this.nodeCount = offsets.length - 1;
+    this.offsets = offsets;
+    this.targets = targets;
+    this.lengths = lengths;
+    this.baseLengths = baseLengths;
+    this.edges = edges;
+    this.lat = lat;
+    this.lon = lon;
+  }
+
+  /*
+   * @return the number of arcs (twice the number of edges)
+   */
+  public int arcCount() {
+    return targets.length;
+  }
+
+  /*
+   * @param u - a vertex id
+   * @return the number of arcs leaving u
+   */
+  public int degree( int u ) {
+    return offsets[u + 1] - offsets[u];
+  }
+
+  /*
+   * Straight-line (great circle) distance between two vertices, which is never
+   * more than the length of any path between them.
+   * @param u - a vertex id
+   * @param v - another vertex id
+   * @return the distance in meters
+   */
+  public double greatCircleDistance( int u, int v ) {
+    return Edge.getGreatCircleDistance( lat[u], lon[u], lat[v], lon[v] );
+  }
+
+  /*
+   * Fingerprint of the shape and base lengths of the graph, so tables computed
+   * for one map (landmarks, building distances) are not used with another map
+   * that merely has as many vertices and arcs. Closures and reweighting do not
+   * change it.
+   *
+   * @return a 64-bit hash of offsets, targets and baseLengths
+   */
+  public long checksum() {
+    long h = 0xcbf29ce484222325L; //FNV-1a offset basis
+    for( int i = 0; i < offsets.length; i++ )
+      h = (h ^ offsets[i]) * 0x100000001b3L;
+    for( int a = 0; a < targets.length; a++ ) {
+      h = (h ^ targets[a]) * 0x100000001b3L;
+      h = (h ^ Double.doubleToLongBits( baseLengths[a] )) * 0x100000001b3L;
+    }
+    return h;
+  }
+
+  /*
+   * @param newLengths - current length of each arc
+   * @return a graph of the same shape with other arc lengths
+   */
+  public CompactGraph withLengths( double[] newLengths ) {
+    return new CompactGraph( offsets, targets, newLengths, baseLengths, edges, lat, lon );
+  }
+
+  /*
+   * @return this graph with every arc at its base length, as if nothing were closed or reweighted
+   */
+  public CompactGraph base() {
+    return lengths == baseLengths ? this : withLengths( baseLengths );
+  }
+}
@@ -0,0 +1,456 @@
+/*****************************************************************
+  * ContractionHierarchy.java
+  *
+  * Contraction Hierarchies preprocessing and query engine for WendyGraph.
+  *
+  * Preprocessing removes ("contracts") the vertices one at a time, least
+  * important first. Whenever removing vertex v would break the only shortest
+  * path between two of its remaining neighbours u and w, a shortcut u-w is
+  * added whose length is the length of u-v-w, and which remembers v so it can
+  * be unpacked again. Each vertex keeps only its arcs to vertices contracted
+  * after it ("upward" arcs).
+  *
+  * A query runs Dijkstra upward from both ends at once; the two searches meet
+  * at the most important vertex of the shortest path, so each side only
+  * settles a handful of vertices. The shortcuts on the path found are then
+  * unpacked back into the original Edge sequence.
+  *
+  * Built by WendyGraph.contractionHierarchy()
+  ****************************************************************/
+import java.util.*;
+
+public class ContractionHierarchy {
+
+  //witness searches give up after settling this many vertices and add the shortcut
+  private static final int WITNESS_SETTLE_LIMIT = 500;
+  private static final int SIMULATE_SETTLE_LIMIT = 50;
+
+  private final CompactGraph graph; //the graph the hierarchy was built from
+  private final int[] rank; //position of each vertex in the contraction order
+
+  //upward arcs of each vertex, in CSR form
+  private final int[] upOffsets;
+  private final int[] upTargets;
+  private final double[] upLengths;
+  private final int[] upMiddle; //vertex a shortcut skips, or -1 for an original arc
+  private final Edge[] upEdges; //original Edge of an arc that is not a shortcut
+
+  private final int shortcutCount; //number of upward arcs that are shortcuts
+  private final long buildNanos; //time taken by preprocessing
+
+  /*
+   * Computes a contraction order for the graph, adds the shortcuts needed
+   * to keep every shortest path, and builds the upward search graph.
+   * @param g - the compressed adjacency arrays of a WendyGraph
+   */
+  public ContractionHierarchy( CompactGraph g ) {
+    long start = System.nanoTime();
+    graph = g;
+    int n = g.nodeCount;
+    rank = new int[n];
+
+    Workspace w = new Workspace( g );
+
+    //initial order: cheapest vertices to contract first
+    DistanceHeap order = new DistanceHeap( n );
+    double[] priority = new double[n];
+    for( int v = 0; v < n; v++ ) {
+      priority[v] = w.priority( v );
+      order.add( v, priority[v] );
+    }
+
+    //upward arcs of each vertex, collected as it is contracted
+    int[][] upTo = new int[n][];
+    double[][] upLen = new double[n][];
+    int[][] upMid = new int[n][];
+    int[][] upArc = new int[n][];
+
+    int next = 0;
+    while( !order.isEmpty() ) {
+      double key = order.peekKey();
+      int v = order.poll();
+      if( w.contracted[v] || key != priority[v] ) continue; //stale entry
+
+      //lazy update: contract v only if it is still the cheapest
+      priority[v] = w.priority( v );
+      if( !order.isEmpty() && priority[v] > order.peekKey() ) {
+        order.add( v, priority[v] );
+        continue;
+      }
+
+      rank[v] = next++;
+      int size = w.size[v];
+      upTo[v] = Arrays.copyOf( w.to[v], size );
+      upLen[v] = Arrays.copyOf( w.len[v], size );
+      upMid[v] = Arrays.copyOf( w.mid[v], size );
+      upArc[v] = Arrays.copyOf( w.arc[v], size );
+
+      w.contract( v );
+
+      //neighbours' costs have changed
+      for( int i = 0; i < size; i++ ) {
+        int u = upTo[v][i];
+        priority[u] = w.priority( u );
+        order.add( u, priority[u] );
+      }
+    }
+
+    //pack the upward arcs
+    upOffsets = new int[n + 1];
+    for( int v = 0; v < n; v++ )
+      upOffsets[v + 1] = upOffsets[v] + upTo[v].length;
+    int m = upOffsets[n];
+    upTargets = new int[m];
+    upLengths = new double[m];
+    upMiddle = new int[m];
+    upEdges = new Edge[m];
+    int shortcuts = 0;
+    for( int v = 0; v < n; v++ ) {
+      for( int i = 0; i < upTo[v].length; i++ ) {
+        int a = upOffsets[v] + i;
+        upTargets[a] = upTo[v][i];
+        upLengths[a] = upLen[v][i];
+        upMiddle[a] = upMid[v][i];
+        if( upMid[v][i] == -1 )
+          upEdges[a] = g.edges[upArc[v][i]];
+        else
+          shortcuts++;
+      }
+    }
+    shortcutCount = shortcuts;
+    buildNanos = System.nanoTime() - start;
+  }
+
+  /*
+   * @return the graph this hierarchy was built from
+   */
+  public CompactGraph getGraph() {
+    return graph;
+  }
+
+  /*
+   * @return the number of shortcuts added by preprocessing
+   */
+  public int getShortcutCount() {
+    return shortcutCount;
+  }
+
+  /*
+   * @return the preprocessing time in milliseconds
+   */
+  public double getBuildMillis() {
+    return buildNanos / 1E6;
+  }
+
+  /*
+   * Bidirectional upward search. Both sides only follow arcs to more important
+   * vertices; a side stops once its queue minimum reaches the best path found,
+   * and vertices that can be reached more cheaply from a more important
+   * neighbour are not expanded ("stall on demand").
+   *
+   * @param ctx - the search state to use for the forward search
+   * @param source - the id of the start vertex
+   * @param target - the id of the end vertex
+   * @return the most important vertex on the shortest path, or -1 if there is no path
+   */
+  public int query( SearchContext ctx, int source, int target ) {
+    int n = graph.nodeCount;
+    SearchContext fwd = ctx;
+    SearchContext bwd = ctx.backward();
+    fwd.reset( n );
+    bwd.reset( n );
+    fwd.update( source, 0, source );
+    bwd.update( target, 0, target );
+    fwd.heap.add( source, 0 );
+    bwd.heap.add( target, 0 );
+
+    double best = Double.MAX_VALUE;
+    int meet = -1;
+    boolean forward = true;
+
+    while( true ) {
+      boolean fwdDone = fwd.heap.isEmpty() || fwd.heap.peekKey() >= best;
+      boolean bwdDone = bwd.heap.isEmpty() || bwd.heap.peekKey() >= best;
+      if( fwdDone && bwdDone ) break;
+      if( fwdDone ) forward = false;
+      else if( bwdDone ) forward = true;
+
+      SearchContext side = forward ? fwd : bwd;
+      SearchContext other = forward ? bwd : fwd;
+      forward = !forward;
+
+      double d = side.heap.peekKey();
+      int u = side.heap.poll();
+      if( side.isSettled( u ) ) continue; //stale entry
+      side.settle( u );
+
+      if( other.distance( u ) != Double.MAX_VALUE && d + other.distance( u ) < best ) {
+        best = d + other.distance( u );
+        meet = u;
+      }
+
+      if( isStalled( side, u, d ) ) continue;
+
+      for( int a = upOffsets[u]; a < upOffsets[u + 1]; a++ ) {
+        int v = upTargets[a];
+        double altWeight = d + upLengths[a];
+        if( altWeight < side.distance( v ) ) {
+          side.update( v, altWeight, u );
+          side.heap.add( v, altWeight );
+        }
+      }
+    }
+
+    fwd.addSettledCount( bwd.getSettledCount() );
+    return meet;
+  }
+
+  /*
+   * A vertex is stalled if a more important neighbour that the search already
+   * reached gives it a shorter distance: then the search's own path to it is not
+   * a shortest one, and expanding it cannot help.
+   */
+  private boolean isStalled( SearchContext side, int u, double d ) {
+    for( int a = upOffsets[u]; a < upOffsets[u + 1]; a++ ) {
+      double dv = side.distance( upTargets[a] );
+      if( dv != Double.MAX_VALUE && dv + upLengths[a] < d )
+        return true;
+    }
+    return false;
+  }
+
+  /*
+   * Unpacks the path found by the last query into its original Edges.
+   * @param ctx - the forward search state of a finished query
+   * @param meet - the vertex returned by query
+   * @return the Edges along the shortest path, in order from source to target
+   */
+  public ArrayList<Edge> getPathEdges( SearchContext ctx, int meet ) {
+    //vertices of the upward path, source .. meet .. target
+    ArrayList<Integer> up = new ArrayList<Integer>();
+    int v = meet;
+    up.add( v );
+    while( ctx.parent( v ) != v ) {
+      v = ctx.parent( v );
+      up.add( v );
+    }
+    Collections.reverse( up );
+    SearchContext bwd = ctx.backward();
+    v = meet;
+    while( bwd.parent( v ) != v ) {
+      v = bwd.parent( v );
+      up.add( v );
+    }
+
+    ArrayList<Edge> edges = new ArrayList<Edge>();
+    for( int i = 1; i < up.size(); i++ )
+      unpack( up.get( i - 1 ), up.get( i ), edges );
+    return edges;
+  }
+
+  /*
+   * Appends the original Edges between two vertices joined by an upward arc,
+   * replacing each shortcut by the two arcs it skips.
+   * @param from - the vertex the path leaves
+   * @param to - the vertex the path arrives at
+   * @param edges - list to append to
+   */
+  private void unpack( int from, int to, ArrayList<Edge> edges ) {
+    int[] stack = new int[16];
+    stack[0] = from;
+    stack[1] = to;
+    int top = 2;
+    while( top > 0 ) {
+      int b = stack[--top];
+      int a = stack[--top];
+      int arc = rank[a] < rank[b] ? findUpArc( a, b ) : findUpArc( b, a );
+      int m = upMiddle[arc];
+      if( m == -1 ) {
+        edges.add( upEdges[arc] );
+        continue;
+      }
+      if( top + 4 > stack.length )
+        stack = Arrays.copyOf( stack, stack.length * 2 );
+      //push the second half first so the first half comes out first
+      stack[top++] = m;
+      stack[top++] = b;
+      stack[top++] = a;
+      stack[top++] = m;
+    }
+  }
+
+  /*
+   * @return the index of the upward arc from low to high
+   */
+  private int findUpArc( int low, int high ) {
+    for( int a = upOffsets[low]; a < upOffsets[low + 1]; a++ ) {
+      if( upTargets[a] == high )
+        return a;
+    }
+    throw new IllegalStateException( "No arc " + low + "-" + high + " in hierarchy" );
+  }
+
+  /*
+   * The graph as it is while vertices are being contracted: every
+   * remaining vertex keeps a list of its arcs to the other remaining vertices.
+   */
+  private static class Workspace {
+    int[][] to; //neighbour of each arc
+    double[][] len; //length of each arc
+    int[][] mid; //contracted vertex a shortcut skips, or -1
+    int[][] arc; //original CompactGraph arc, or -1 for a shortcut
+    int[] size; //number of arcs of each vertex
+    int[] contractedNeighbours; //number of neighbours contracted so far
+    boolean[] contracted;
+    SearchContext witness; //state of the witness searches
+
+    Workspace( CompactGraph g ) {
+      int n = g.nodeCount;
+      to = new int[n][];
+      len = new double[n][];
+      mid = new int[n][];
+      arc = new int[n][];
+      size = new int[n];
+      contractedNeighbours = new int[n];
+      contracted = new boolean[n];
+      witness = new SearchContext( n );
+      for( int u = 0; u < n; u++ ) {
+        int degree = Math.max( g.degree( u ), 2 );
+        to[u] = new int[degree];
+        len[u] = new double[degree];
+        mid[u] = new int[degree];
+        arc[u] = new int[degree];
+        for( int a = g.offsets[u]; a < g.offsets[u + 1]; a++ ) {
+          if( g.targets[a] != u && g.lengths[a] != Double.POSITIVE_INFINITY ) //skip closed edges
+            addArc( u, g.targets[a], g.lengths[a], -1, a );
+        }
+      }
+    }
+
+    /*
+     * Adds an arc, or shortens the existing arc to the same neighbour.
+     */
+    void addArc( int u, int v, double length, int middle, int originalArc ) {
+      for( int i = 0; i < size[u]; i++ ) {
+        if( to[u][i] == v ) {
+          if( length < len[u][i] ) {
+            len[u][i] = length;
+            mid[u][i] = middle;
+            arc[u][i] = originalArc;
+          }
+          return;
+        }
+      }
+      if( size[u] == to[u].length ) {
+        int capacity = size[u] * 2;
+        to[u] = Arrays.copyOf( to[u], capacity );
+        len[u] = Arrays.copyOf( len[u], capacity );
+        mid[u] = Arrays.copyOf( mid[u], capacity );
+        arc[u] = Arrays.copyOf( arc[u], capacity );
+      }
+      to[u][size[u]] = v;
+      len[u][size[u]] = length;
+      mid[u][size[u]] = middle;
+      arc[u][size[u]] = originalArc;
+      size[u]++;
+    }
+
+    /*
+     * Removes the arc from u to v.
+     */
+    void removeArc( int u, int v ) {
+      for( int i = 0; i < size[u]; i++ ) {
+        if( to[u][i] == v ) {
+          int last = --size[u];
+          to[u][i] = to[u][last];
+          len[u][i] = len[u][last];
+          mid[u][i] = mid[u][last];
+          arc[u][i] = arc[u][last];
+          return;
+        }
+      }
+    }
+
+    /*
+     * Cost of contracting v: shortcuts it needs minus arcs it removes,
+     * plus its already contracted neighbours to spread contraction evenly.
+     */
+    double priority( int v ) {
+      int shortcuts = shortcuts( v, false );
+      return 2 * shortcuts - size[v] + 2 * contractedNeighbours[v];
+    }
+
+    /*
+     * Removes v from the graph, adding the shortcuts its neighbours need.
+     */
+    void contract( int v ) {
+      shortcuts( v, true );
+      for( int i = 0; i < size[v]; i++ ) {
+        int u = to[v][i];
+        removeArc( u, v );
+        contractedNeighbours[u]++;
+      }
+      contracted[v] = true;
+    }
+
+    /*
+     * Finds the pairs of neighbours of v whose shortest path goes through v.
+     * @param v - the vertex to contract
+     * @param add - true to add the shortcuts, false to only count them
+     * @return the number of shortcuts needed
+     */
+    int shortcuts( int v, boolean add ) {
+      int count = 0;
+      int degree = size[v];
+      int limit = add ? WITNESS_SETTLE_LIMIT : SIMULATE_SETTLE_LIMIT;
+      //copy, since adding shortcuts does not touch v's own list but be safe
+      int[] nbr = Arrays.copyOf( to[v], degree );
+      double[] nbrLen = Arrays.copyOf( len[v], degree );
+      for( int i = 0; i < degree; i++ ) {
+        int u = nbr[i];
+        double maxVia = 0;
+        for( int j = i + 1; j < degree; j++ )
+          maxVia = Math.max( maxVia, nbrLen[i] + nbrLen[j] );
+        if( maxVia == 0 ) continue;
+
+        witnessSearch( u, v, maxVia, limit );
+        for( int j = i + 1; j < degree; j++ ) {
+          int x = nbr[j];
+          double via = nbrLen[i] + nbrLen[j];
+          if( witness.distance( x ) <= via ) continue; //a path avoiding v is as short
+          count++;
+          if( add ) {
+            addArc( u, x, via, v, -1 );
+            addArc( x, u, via, v, -1 );
+          }
+        }
+      }
+      return count;
+    }
+
+    /*
+     * Dijkstra from u over the remaining vertices, avoiding v, up to a distance.
+     */
+    void witnessSearch( int u, int v, double maxDistance, int settleLimit ) {
+      witness.reset( to.length );
+      witness.update( u, 0, u );
+      witness.heap.add( u, 0 );
+      while( !witness.heap.isEmpty() && witness.getSettledCount() < settleLimit ) {
+        double d = witness.heap.peekKey();
+        int x = witness.heap.poll();
+        if( witness.isSettled( x ) ) continue;
+        witness.settle( x );
+        if( d > maxDistance ) break;
+        for( int i = 0; i < size[x]; i++ ) {
+          int y = to[x][i];
+          if( y == v ) continue;
+          double alt = d + len[x][i];
+          if( alt < witness.distance( y ) ) {
+            witness.update( y, alt, x );
+            witness.heap.add( y, alt );
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,145 @@
+/*****************************************************************
+  * DistanceHeap.java
+  *
+  * A binary min-heap of int node ids keyed by their tentative distance,
+  * used by the shortest path searches in WendyGraph.
+  *
+  * Keys are never decreased in place: when a node's distance improves it is
+  * simply added again, and the caller skips the stale entry when it is polled
+  * (its key will be larger than the node's current distance). This keeps the
+  * heap free of any per-node position table, so it can be cleared and reused
+  * across searches without touching every vertex.
+  *
+  * Used by WendyGraph.java
+  ****************************************************************/
+public class DistanceHeap {
+
+  private double[] keys; //key of each heap entry
+  private int[] nodes; //node id of each heap entry
+  private int size; //number of entries in the heap
+  private long inserts, removes; //entries added and polled since resetCounts
+
+  /*
+   * Creates an empty heap.
+   * @param capacity - initial number of entries the heap can hold before growing
+   */
+  public DistanceHeap( int capacity ) {
+    capacity = Math.max( capacity, 16 );
+    keys = new double[capacity];
+    nodes = new int[capacity];
+    size = 0;
+  }
+
+  /*
+   * Removes all entries; the backing arrays are kept for reuse.
+   */
+  public void clear() {
+    size = 0;
+  }
+
+  /*
+   * @return the number of entries added since resetCounts; not changed by clear
+   */
+  public long getInserts() {
+    return inserts;
+  }
+
+  /*
+   * @return the number of entries polled since resetCounts; not changed by clear
+   */
+  public long getRemoves() {
+    return removes;
+  }
+
+  /*
+   * Starts counting inserts and removes from zero.
+   */
+  public void resetCounts() {
+    inserts = removes = 0;
+  }
+
+  /*
+   * @return true if there are no entries in the heap
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /*
+   * @return the number of entries in the heap (including stale ones)
+   */
+  public int size() {
+    return size;
+  }
+
+  /*
+   * Adds a node with the given key.
+   * @param node - the node id
+   * @param key - the tentative distance of the node
+   */
+  public void add( int node, double key ) {
+    if( size == keys.length ) {
+      keys = java.util.Arrays.copyOf( keys, size * 2 );
+      nodes = java.util.Arrays.copyOf( nodes, size * 2 );
+    }
+
+    inserts++;
+    //sift up
+    int i = size++;
+    while( i > 0 ) {
+      int parent = (i - 1) >>> 1;
+      if( keys[parent] <= key )
+        break;
+      keys[i] = keys[parent];
+      nodes[i] = nodes[parent];
+      i = parent;
+    }
+    keys[i] = key;
+    nodes[i] = node;
+  }
+
+  /*
+   * @return the smallest key in the heap
+   */
+  public double peekKey() {
+    return keys[0];
+  }
+
+  /*
+   * @return the node with the smallest key in the heap
+   */
+  public int peekNode() {
+    return nodes[0];
+  }
+
+  /*
+   * Removes the entry with the smallest key.
+   * @return the node id of the removed entry
+   */
+  public int poll() {
+    int top = nodes[0];
+    size--;
+    removes++;
+    if( size > 0 ) {
+      double key = keys[size];
+      int node = nodes[size];
+
+      //sift down
+      int i = 0;
+      int half = size >>> 1;
+      while( i < half ) {
+        int child = 2 * i + 1;
+        if( child + 1 < size && keys[child + 1] < keys[child] )
+          child++;
+        if( key <= keys[child] )
+          break;
+        keys[i] = keys[child];
+        nodes[i] = nodes[child];
+        i = child;
+      }
+      keys[i] = key;
+      nodes[i] = node;
+    }
+    return top;
+  }
+}
@@ -31,6 +31,20 @@ public class Edge {
     node2 = n2;
   }
   
+  /*
+   * Creates a weighted Edge between two Nodes whose length is already known,
+   * for example when reading a map file that stores edge lengths.
+   * 
+   * @param n1 - Node #1
+   * @param n2 - Node #2
+   * @param length - length of the path in meters
+   */
+  public Edge( Node n1, Node n2, double length ) {
+    this.length = length;
+    node1 = n1;
+    node2 = n2;
+  }
+  
   /* @author Xinhui
    * 
    * The 'haversine' formula to find distance in meter given the latitude&longitude of two points, 
@@ -0,0 +1,198 @@
+/*****************************************************************
+  * Landmarks.java
+  *
+  * Landmark distance tables for ALT (A*, Landmarks, Triangle inequality)
+  * routing in WendyGraph.
+  *
+  * A few vertices far apart from each other are chosen as landmarks, and the
+  * distance from every landmark to every vertex is stored. By the triangle
+  * inequality, |d(L,t) - d(L,v)| is never more than the distance from v to t,
+  * so the largest of these over all landmarks is a lower bound that A* can use.
+  * Unlike the straight-line distance it follows the roads, so it stays tight
+  * when paths have to go around buildings and ponds.
+  *
+  * Tables can be saved to and loaded from a file, so they only have to be
+  * computed once per map.
+  *
+  * Built by WendyGraph.landmarks()
+  ****************************************************************/
+import java.io.*;
+
+public class Landmarks {
+
+  private static final int FILE_MAGIC = 0x574c4d4b; //"WLMK"
+  private static final int FILE_VERSION = 2;
+
+  private final int[] landmarks; //vertex id of each landmark
+  private final double[][] distances; //distances[i][v] = distance from landmark i to vertex v
+  private final int nodeCount; //number of vertices of the graph
+  private final int arcCount; //number of arcs of the graph, to check a loaded file matches
+  private final long checksum; //CompactGraph.checksum() of the graph, to check a loaded file matches
+
+  /*
+   * Picks k landmarks by farthest-point selection and computes their distance tables.
+   * The first landmark is the vertex farthest from vertex 0; each next one is the
+   * vertex farthest from all landmarks chosen so far.
+   *
+   * @param g - the compressed adjacency arrays of a WendyGraph
+   * @param k - number of landmarks
+   */
+  public Landmarks( CompactGraph g, int k ) {
+    nodeCount = g.nodeCount;
+    arcCount = g.arcCount();
+    checksum = g.checksum();
+    k = Math.min( k, nodeCount );
+    landmarks = new int[k];
+    distances = new double[k][];
+
+    SearchContext ctx = new SearchContext( nodeCount );
+    double[] nearest = new double[nodeCount]; //distance to the closest landmark so far
+
+    //start from the vertex farthest from vertex 0
+    int next = 0;
+    if( nodeCount > 0 ) {
+      WendyGraph.dijkstra( g, ctx, 0, -1 );
+      next = farthest( ctx, null );
+    }
+    java.util.Arrays.fill( nearest, Double.MAX_VALUE );
+
+    for( int i = 0; i < k; i++ ) {
+      landmarks[i] = next;
+      WendyGraph.dijkstra( g, ctx, next, -1 );
+      distances[i] = new double[nodeCount];
+      for( int v = 0; v < nodeCount; v++ ) {
+        distances[i][v] = ctx.distance( v );
+        nearest[v] = Math.min( nearest[v], distances[i][v] );
+      }
+      next = farthest( null, nearest );
+    }
+  }
+
+  /*
+   * Creates landmark tables from already computed distances.
+   */
+  private Landmarks( int[] landmarks, double[][] distances, int nodeCount, int arcCount, long checksum ) {
+    this.landmarks = landmarks;
+    this.distances = distances;
+    this.nodeCount = nodeCount;
+    this.arcCount = arcCount;
+    this.checksum = checksum;
+  }
+
+  /*
+   * Finds the vertex with the largest distance, either in a finished search or in
+   * an array. Vertices no landmark can reach are skipped; bounds for them are 0.
+   */
+  private int farthest( SearchContext ctx, double[] dist ) {
+    int best = 0;
+    double bestDistance = -1;
+    for( int v = 0; v < nodeCount; v++ ) {
+      double d = ctx != null ? ctx.distance( v ) : dist[v];
+      if( d != Double.MAX_VALUE && d > bestDistance ) {
+        bestDistance = d;
+        best = v;
+      }
+    }
+    return best;
+  }
+
+  /*
+   * @return the number of landmarks
+   */
+  public int size() {
+    return landmarks.length;
+  }
+
+  /*
+   * @param i - index of a landmark
+   * @return the vertex id of the landmark
+   */
+  public int getLandmark( int i ) {
+    return landmarks[i];
+  }
+
+  /*
+   * @param g - compressed adjacency arrays
+   * @return true if these tables were computed for a graph of the same shape and lengths
+   */
+  public boolean matches( CompactGraph g ) {
+    return g.nodeCount == nodeCount && g.arcCount() == arcCount && g.checksum() == checksum;
+  }
+
+  /*
+   * Lower bound on the distance between two vertices from the triangle inequality.
+   * Landmarks that cannot reach both vertices are skipped.
+   *
+   * @param v - a vertex id
+   * @param t - another vertex id
+   * @return a distance in meters that is never more than the shortest path from v to t
+   */
+  public double lowerBound( int v, int t ) {
+    double bound = 0;
+    for( int i = 0; i < distances.length; i++ ) {
+      double dv = distances[i][v];
+      double dt = distances[i][t];
+      if( dv == Double.MAX_VALUE || dt == Double.MAX_VALUE )
+        continue;
+      double d = Math.abs( dt - dv );
+      if( d > bound )
+        bound = d;
+    }
+    return bound;
+  }
+
+  /*
+   * Writes the landmark tables to a file.
+   * @param file - the file to write
+   */
+  public void save( File file ) throws IOException {
+    DataOutputStream out = new DataOutputStream(
+                             new BufferedOutputStream( new FileOutputStream( file ) ) );
+    try {
+      out.writeInt( FILE_MAGIC );
+      out.writeInt( FILE_VERSION );
+      out.writeInt( nodeCount );
+      out.writeInt( arcCount );
+      out.writeLong( checksum );
+      out.writeInt( landmarks.length );
+      for( int i = 0; i < landmarks.length; i++ ) {
+        out.writeInt( landmarks[i] );
+        for( int v = 0; v < nodeCount; v++ )
+          out.writeDouble( distances[i][v] );
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /*
+   * Reads landmark tables written by save.
+   * @param file - the file to read
+   * @return the landmark tables
+   */
+  public static Landmarks load( File file ) throws IOException {
+    DataInputStream in = new DataInputStream(
+                           new BufferedInputStream( new FileInputStream( file ) ) );
+    try {
+      if( in.readInt() != FILE_MAGIC )
+        throw new IOException( file + " is not a landmark file" );
+      int version = in.readInt();
+      if( version != FILE_VERSION )
+        throw new IOException( file + " has unsupported landmark file version " + version );
+      int nodeCount = in.readInt();
+      int arcCount = in.readInt();
+      long checksum = in.readLong();
+      int k = in.readInt();
+      int[] landmarks = new int[k];
+      double[][] distances = new double[k][nodeCount];
+      for( int i = 0; i < k; i++ ) {
+        landmarks[i] = in.readInt();
+        for( int v = 0; v < nodeCount; v++ )
+          distances[i][v] = in.readDouble();
+      }
+      return new Landmarks( landmarks, distances, nodeCount, arcCount, checksum );
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*****************************************************************
+  * LatencyHistogram.java
+  *
+  * A fixed-size, thread-safe histogram of latencies for reporting
+  * percentiles of routing requests.
+  *
+  * Latencies are counted in microseconds in log-linear buckets: exact
+  * below 16 us, and 16 buckets per power of two above that, so every
+  * percentile is within about 6% of the true value whatever the range.
+  * Recording is a single atomic increment and never allocates.
+  ****************************************************************/
+import java.util.concurrent.atomic.*;
+
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKETS = 16; //buckets per power of two
+  private static final int SUB_BITS = 4; //log2 of SUB_BUCKETS
+  private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray( BUCKETS );
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong totalMicros = new AtomicLong();
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  /*
+   * Records one latency.
+   * @param nanos - the latency in nanoseconds
+   */
+  public void record( long nanos ) {
+    long micros = Math.max( 0, nanos / 1000 );
+    counts.incrementAndGet( bucket( micros ) );
+    count.incrementAndGet();
+    totalMicros.addAndGet( micros );
+    long max;
+    while( micros > (max = maxMicros.get()) && !maxMicros.compareAndSet( max, micros ) ) {
+      //another thread raised the max, try again
+    }
+  }
+
+  /*
+   * @return the bucket a latency in microseconds falls in
+   */
+  private static int bucket( long micros ) {
+    if( micros < SUB_BUCKETS )
+      return (int)micros;
+    int exponent = 63 - Long.numberOfLeadingZeros( micros ); //at least SUB_BITS
+    int mantissa = (int)(micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return SUB_BUCKETS + (exponent - SUB_BITS) * SUB_BUCKETS + mantissa;
+  }
+
+  /*
+   * @return the largest latency in microseconds that falls in a bucket
+   */
+  private static long bucketLimit( int bucket ) {
+    if( bucket < SUB_BUCKETS )
+      return bucket;
+    int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS;
+    long mantissa = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+    return ((SUB_BUCKETS + mantissa + 1) << (exponent - SUB_BITS)) - 1;
+  }
+
+  /*
+   * @param percentile - between 0 and 100, for example 99 for the 99th percentile
+   * @return the latency in microseconds that percentile of the recorded latencies
+   *         are no greater than (rounded up to the end of its bucket), 0 if none were recorded
+   */
+  public long getPercentileMicros( double percentile ) {
+    long total = 0;
+    long[] snapshot = new long[BUCKETS];
+    for( int b = 0; b < BUCKETS; b++ ) {
+      snapshot[b] = counts.get( b );
+      total += snapshot[b];
+    }
+    if( total == 0 )
+      return 0;
+    long rank = Math.max( 1, (long)Math.ceil( total * percentile / 100 ) );
+    long seen = 0;
+    for( int b = 0; b < BUCKETS; b++ ) {
+      seen += snapshot[b];
+      if( seen >= rank )
+        return Math.min( bucketLimit( b ), maxMicros.get() );
+    }
+    return maxMicros.get();
+  }
+
+  /* @return the number of latencies recorded */
+  public long getCount() {
+    return count.get();
+  }
+
+  /* @return the mean latency in microseconds, 0 if none were recorded */
+  public double getMeanMicros() {
+    long n = count.get();
+    return n == 0 ? 0 : (double)totalMicros.get() / n;
+  }
+
+  /* @return the largest latency recorded in microseconds */
+  public long getMaxMicros() {
+    return maxMicros.get();
+  }
+
+  /*
+   * Forgets every recorded latency.
+   */
+  public void clear() {
+    for( int b = 0; b < BUCKETS; b++ )
+      counts.set( b, 0 );
+    count.set( 0 );
+    totalMicros.set( 0 );
+    maxMicros.set( 0 );
+  }
+
+  /*
+   * @return count, mean, median, 90th and 99th percentile and max in one line
+   */
+  public String toString() {
+    return String.format( "n=%d mean=%.0fus p50=%dus p90=%dus p99=%dus max=%dus", getCount(), getMeanMicros(),
+                          getPercentileMicros( 50 ), getPercentileMicros( 90 ), getPercentileMicros( 99 ),
+                          getMaxMicros() );
+  }
+}
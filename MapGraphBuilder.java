@@ -0,0 +1,117 @@
+/*****************************************************************
+  * MapGraphBuilder.java
+  *
+  * Builds the jGraph cells for the map of a WendyGraph in bulk: one
+  * vertex per node and one edge per Edge, all added to the model in a
+  * single transaction.
+  *
+  * Every Edge is stored in the lists of both of its nodes, so it is only
+  * drawn from the list of the node with the smaller id. Endpoints are
+  * found by node id, and all edge labels share one DecimalFormat.
+  *
+  * Vertex positions come from the map's MapProjection, all at once, and
+  * can be recomputed for a new drawing size the same way; edges follow
+  * their vertices.
+  *
+  * Used by TravelingWendyPanel.java
+  ****************************************************************/
+import java.text.DecimalFormat;
+import java.util.*;
+
+import com.mxgraph.model.mxCell;
+import com.mxgraph.model.mxGeometry;
+import com.mxgraph.model.mxIGraphModel;
+import com.mxgraph.view.mxGraph;
+
+public class MapGraphBuilder {
+
+  /*
+   * Adds the map to a graph.
+   *
+   * @param graph - the graph to add the cells to, under its default parent
+   * @param wendyGraph - the map
+   * @param mapWidth - width of the drawing in pixels
+   * @param mapHeight - height of the drawing in pixels
+   * @return the vertex cell of every node, indexed by node id
+   */
+  public static Object[] build( mxGraph graph, WendyGraph wendyGraph, int mapWidth, int mapHeight ) {
+    Object parent = graph.getDefaultParent();
+    int n = wendyGraph.vertices.size();
+    Object[] vertexCells = new Object[n];
+    ArrayList<Object> cells = new ArrayList<Object>( n * 3 );
+
+    //vertices
+    int[] xy = wendyGraph.getProjection().projectAll( wendyGraph.vertices, mapWidth, mapHeight );
+    for( int id = 0; id < n; id++ ) {
+      Node vertex = wendyGraph.vertices.get( id );
+      if( vertex.getisBuilding() )
+        vertexCells[id] = graph.createVertex( parent, null, vertex.getName(), xy[2 * id], xy[2 * id + 1],
+                                              vertex.getName().length() * 10 - 10, 20, "BUILDING" );
+      else //intersection
+        vertexCells[id] = graph.createVertex( parent, null, vertex.getName(), xy[2 * id], xy[2 * id + 1],
+                                              7, 7, "INTERSECTION" );
+      cells.add( vertexCells[id] );
+    }
+
+    //edges, each from the end with the smaller id
+    DecimalFormat lengthFormat = new DecimalFormat();
+    lengthFormat.setMaximumFractionDigits( 0 );
+    IdentityHashMap<Edge, Boolean> loops = new IdentityHashMap<Edge, Boolean>(); //self loops are in one list twice
+    for( int id = 0; id < n; id++ ) {
+      Node vertex = wendyGraph.vertices.get( id );
+      for( Edge e : wendyGraph.edges.get( id ) ) {
+        int other = e.getOtherNode( vertex ).getId();
+        if( other < id || (other == id && loops.put( e, Boolean.TRUE ) != null) ) continue;
+
+        Object source = vertexCells[e.getNode1().getId()];
+        Object target = vertexCells[e.getNode2().getId()];
+        mxCell edge = (mxCell)graph.createEdge( parent, null, lengthFormat.format( e.getLength() ), source, target,
+                                                "endArrow=None;" );
+        edge.setSource( (mxCell)source );
+        edge.setTarget( (mxCell)target ); //connected to both ends when the model adds it
+        cells.add( edge );
+      }
+    }
+
+    graph.getModel().beginUpdate();
+    try {
+      graph.addCells( cells.toArray(), parent );
+    } finally {
+      graph.getModel().endUpdate();
+    }
+    return vertexCells;
+  }
+
+  /*
+   * Moves the vertices of a map built by build() to where they belong in a
+   * drawing of another size, in a single model update. Vertices keep their
+   * size, so labels stay readable however large the drawing is.
+   *
+   * @param graph - the graph the cells were added to
+   * @param wendyGraph - the map
+   * @param vertexCells - the vertex cell of every node, as returned by build()
+   * @param mapWidth - new width of the drawing in pixels
+   * @param mapHeight - new height of the drawing in pixels
+   */
+  public static void reproject( mxGraph graph, WendyGraph wendyGraph, Object[] vertexCells,
+                                double mapWidth, double mapHeight ) {
+    mxIGraphModel model = graph.getModel();
+    int[] xy = wendyGraph.getProjection().projectAll( wendyGraph.vertices, mapWidth, mapHeight );
+    int n = Math.min( vertexCells.length, wendyGraph.vertices.size() );
+
+    model.beginUpdate();
+    try {
+      for( int id = 0; id < n; id++ ) {
+        mxGeometry geometry = model.getGeometry( vertexCells[id] );
+        if( geometry == null || (geometry.getX() == xy[2 * id] && geometry.getY() == xy[2 * id + 1]) )
+          continue;
+        geometry = (mxGeometry)geometry.clone();
+        geometry.setX( xy[2 * id] );
+        geometry.setY( xy[2 * id + 1] );
+        model.setGeometry( vertexCells[id], geometry );
+      }
+    } finally {
+      model.endUpdate();
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*****************************************************************
+  * MapProjection.java
+  *
+  * Projects latitude and longitude onto the pixels of a map drawing of
+  * any size, the same way WendyGraph.getPixelCoordinates always has:
+  * longitude runs right to left and latitude top to bottom between the
+  * bounds of the vertices, using the absolute values of the coordinates.
+  *
+  * The bounds are found once, in one pass over the vertices, and the
+  * terms of the transform that do not depend on the point are kept, so
+  * projecting a vertex takes a few primitive operations and a whole map
+  * can be reprojected in one loop when the drawing changes size.
+  *
+  * Created by WendyGraph; used by MapGraphBuilder.java
+  ****************************************************************/
+import java.util.*;
+
+public class MapProjection {
+
+  //bounds of the absolute coordinates: maxLat/maxLong hold the absolute value of the
+  //smallest coordinate and minLat/minLong that of the largest, as in WendyGraph
+  private final double maxLat, minLat, maxLong, minLong;
+
+  //terms of the transform, in millionths of a degree
+  private final double latOffset, longOffset; //minLat and minLong
+  private final double spanLat, spanLong; //size of the bounds
+
+  /*
+   * Finds the bounds of the vertices.
+   * @param vertices - the vertices of the map
+   */
+  public MapProjection( ArrayList<Node> vertices ) {
+    double lowLat = Double.MAX_VALUE, highLat = -Double.MAX_VALUE;
+    double lowLon = Double.MAX_VALUE, highLon = -Double.MAX_VALUE;
+    for( int i = 0, n = vertices.size(); i < n; i++ ) {
+      Node v = vertices.get( i );
+      double lat = v.getLat();
+      double lon = v.getLon();
+      if( lat < lowLat ) lowLat = lat;
+      if( lat > highLat ) highLat = lat;
+      if( lon < lowLon ) lowLon = lon;
+      if( lon > highLon ) highLon = lon;
+    }
+    maxLat = Math.abs( lowLat );
+    minLat = Math.abs( highLat );
+    maxLong = Math.abs( lowLon );
+    minLong = Math.abs( highLon );
+
+    /* Brute force handling of floating point precision */
+    latOffset = minLat * 10E5;
+    longOffset = minLong * 10E5;
+    spanLat = (maxLat - minLat) * 10E5;
+    spanLong = (maxLong - minLong) * 10E5;
+  }
+
+  /* @return the absolute value of the smallest latitude */
+  public double getMaxLat() {
+    return maxLat;
+  }
+
+  /* @return the absolute value of the largest latitude */
+  public double getMinLat() {
+    return minLat;
+  }
+
+  /* @return the absolute value of the smallest longitude */
+  public double getMaxLong() {
+    return maxLong;
+  }
+
+  /* @return the absolute value of the largest longitude */
+  public double getMinLong() {
+    return minLong;
+  }
+
+  /*
+   * @param lon - the absolute value of a longitude
+   * @param mapWidth - the width of the drawing
+   * @return the x coordinate of the longitude
+   */
+  public int toX( double lon, double mapWidth ) {
+    return (int)Math.round( (1 - (lon * 10E5 - longOffset) / spanLong) * mapWidth );
+  }
+
+  /*
+   * @param lat - the absolute value of a latitude
+   * @param mapHeight - the height of the drawing
+   * @return the y coordinate of the latitude
+   */
+  public int toY( double lat, double mapHeight ) {
+    return (int)Math.round( ((lat * 10E5 - latOffset) / spanLat) * mapHeight );
+  }
+
+  /*
+   * Projects every vertex of a map at once.
+   *
+   * @param vertices - the vertices of the map, indexed by id
+   * @param mapWidth - the width of the drawing
+   * @param mapHeight - the height of the drawing
+   * @return x and y of each vertex, x of vertex i at 2 * i and y at 2 * i + 1
+   */
+  public int[] projectAll( ArrayList<Node> vertices, double mapWidth, double mapHeight ) {
+    int n = vertices.size();
+    int[] xy = new int[2 * n];
+    for( int i = 0; i < n; i++ ) {
+      Node v = vertices.get( i );
+      xy[2 * i] = toX( Math.abs( v.getLon() ), mapWidth );
+      xy[2 * i + 1] = toY( Math.abs( v.getLat() ), mapHeight );
+    }
+    return xy;
+  }
+
+  public String toString() {
+    return "MapProjection[lat " + minLat + ".." + maxLat + ", long " + minLong + ".." + maxLong + "]";
+  }
+}
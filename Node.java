@@ -17,6 +17,7 @@ public class Node implements Comparable<Node>{
   protected boolean isBuilding; //false if is road intersection
   protected double weight; //variable used in path-finding algorithm
   protected Node prev; //preceding Node, used in path-finding algorithm
+  protected int id; //index of the Node in the vertices of the WendyGraph it was added to
   
   /**
    * Creates a Node object that holds latitude, longitude, and whether or not the Node represents a 
@@ -35,6 +36,7 @@ public class Node implements Comparable<Node>{
     this.name = name;
     this.weight = weight;
     this.prev = null;
+    this.id = -1;
   }
   
   
@@ -70,6 +72,22 @@ public class Node implements Comparable<Node>{
     return name;
   }
   
+  /*
+   * Gets the index of the Node in the vertices of its WendyGraph
+   * @return id, or -1 if it has not been added to a graph
+   */
+  public int getId() {
+    return id;
+  }
+  
+  /*
+   * Sets the index of the Node, called when it is added to a WendyGraph
+   * @param id - index of the Node in vertices
+   */
+  public void setId( int id ) {
+    this.id = id;
+  }
+  
   /**
    * Returns a string representation of a Node
    * @return string containing the name of the node
@@ -0,0 +1,95 @@
+/*****************************************************************
+  * ReachableRegion.java
+  *
+  * The result of a reachability (isochrone) query: every node within a
+  * walking distance of a start node, in order of distance, and optionally
+  * the points where the limit cuts through the edges leaving that region,
+  * for drawing the outline of the region on the map.
+  *
+  * Created by WendyGraph.reachable()
+  ****************************************************************/
+import java.util.*;
+
+public class ReachableRegion {
+
+  private final double limit; //the walking distance in meters
+  private final ArrayList<Node> nodes; //nodes within the limit, closest first
+  private final double[] distances; //distance to each node in nodes
+  private final ArrayList<Cut> boundary; //where the limit cuts edges, or null if not asked for
+
+  ReachableRegion( double limit, ArrayList<Node> nodes, double[] distances, ArrayList<Cut> boundary ) {
+    this.limit = limit;
+    this.nodes = nodes;
+    this.distances = distances;
+    this.boundary = boundary;
+  }
+
+  /*
+   * @return the walking distance in meters the region was found for
+   */
+  public double getLimit() {
+    return limit;
+  }
+
+  /*
+   * @return the number of nodes within the limit
+   */
+  public int size() {
+    return nodes.size();
+  }
+
+  /*
+   * @param i - index of a node, 0 is the start node
+   * @return the i-th closest node
+   */
+  public Node getNode( int i ) {
+    return nodes.get( i );
+  }
+
+  /*
+   * @param i - index of a node, 0 is the start node
+   * @return the distance to the i-th closest node in meters
+   */
+  public double getDistance( int i ) {
+    return distances[i];
+  }
+
+  /*
+   * @return every node within the limit, closest first
+   */
+  public ArrayList<Node> getNodes() {
+    return new ArrayList<Node>( nodes );
+  }
+
+  /*
+   * @return every building within the limit, closest first
+   */
+  public ArrayList<Node> getBuildings() {
+    ArrayList<Node> buildings = new ArrayList<Node>();
+    for( Node n : nodes ) {
+      if( n.getisBuilding() )
+        buildings.add( n );
+    }
+    return buildings;
+  }
+
+  /*
+   * @return the points where the limit falls inside an edge, or null if
+   *         the boundary was not asked for
+   */
+  public List<Cut> getBoundary() {
+    return boundary == null ? null : Collections.unmodifiableList( boundary );
+  }
+
+  /*
+   * A point on an edge exactly the limit away from the start node.
+   */
+  public static class Cut {
+    public Edge edge; //the edge that is cut
+    public Node from; //the end of the edge inside the region
+    public Node to; //the other end of the edge
+    public double fraction; //how far along the edge from 'from' to 'to' the cut is, 0 to 1
+    public double lat; //latitude of the cut
+    public double lon; //longitude of the cut
+  }
+}
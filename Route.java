@@ -0,0 +1,52 @@
+/*****************************************************************
+  * Route.java
+  *
+  * One route through a WendyGraph: the nodes along it and its length.
+  *
+  * Returned by WendyGraph.kShortestPaths()
+  ****************************************************************/
+import java.util.*;
+
+public class Route implements Comparable<Route> {
+
+  private final ArrayList<Node> nodes; //nodes along the route, start first
+  private final double length; //length of the route in meters
+
+  /*
+   * Creates a route.
+   * @param nodes - the nodes along the route, start first
+   * @param length - the length of the route in meters
+   */
+  public Route( ArrayList<Node> nodes, double length ) {
+    this.nodes = nodes;
+    this.length = length;
+  }
+
+  /*
+   * @return the nodes along the route, start first
+   */
+  public ArrayList<Node> getNodes() {
+    return new ArrayList<Node>( nodes );
+  }
+
+  /*
+   * @return the length of the route in meters
+   */
+  public double getLength() {
+    return length;
+  }
+
+  /*
+   * Orders routes from shortest to longest.
+   */
+  public int compareTo( Route other ) {
+    return Double.compare( length, other.length );
+  }
+
+  /*
+   * @return the length and the nodes of the route
+   */
+  public String toString() {
+    return String.format( "%.1f m %s", length, nodes );
+  }
+}
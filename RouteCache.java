@@ -0,0 +1,311 @@
+/*****************************************************************
+  * RouteCache.java
+  *
+  * A bounded, thread-safe cache of routes in front of WendyGraph.route.
+  *
+  * Paths are cached by (start, end). When tree caching is on, a miss runs a
+  * full search from the start instead and the whole shortest path tree is
+  * kept as well, so later requests from the same origin to any destination
+  * are served without searching again.
+  *
+  * The cache is bounded both by number of entries and by an estimate of the
+  * bytes they hold, and evicts the least recently used entry first. Every
+  * entry belongs to one version of the graph; as soon as WendyGraph reports a
+  * new version (after addNode/addEdge) the whole cache is dropped. Closing or
+  * reweighting an edge only drops the paths and trees it can affect.
+  *
+  * Installed with WendyGraph.setRouteCache
+  ****************************************************************/
+import java.util.*;
+
+public class RouteCache {
+
+  private final int maxEntries; //most entries the cache may hold
+  private final long maxBytes; //most estimated bytes the cache may hold
+  private final boolean cacheTrees; //true to keep a shortest path tree per start vertex
+
+  private final LinkedHashMap<Long, Entry> entries; //in least to most recently used order
+  private long bytes; //estimated bytes held by entries
+  private long version; //graph version the entries belong to
+
+  private long hits, treeHits, misses, evictions, invalidations, edgeDrops;
+
+  /*
+   * Creates an empty cache.
+   * @param maxEntries - most paths and trees the cache may hold
+   * @param maxBytes - most bytes (estimated) the cache may hold
+   * @param cacheTrees - true to run and keep a full search per start vertex on a miss
+   */
+  public RouteCache( int maxEntries, long maxBytes, boolean cacheTrees ) {
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+    this.cacheTrees = cacheTrees;
+    this.entries = new LinkedHashMap<Long, Entry>( 16, 0.75f, true );
+    this.version = -1;
+  }
+
+  /*
+   * @return true if a miss should search the whole tree from the start vertex
+   */
+  public boolean isCachingTrees() {
+    return cacheTrees;
+  }
+
+  /*
+   * Looks up a cached path.
+   * @param start - id of the start vertex
+   * @param end - id of the end vertex
+   * @param graphVersion - current version of the graph
+   * @return the nodes along the path (not to be modified), or null if not cached
+   */
+  public synchronized ArrayList<Node> getPath( int start, int end, long graphVersion ) {
+    checkVersion( graphVersion );
+    Entry e = entries.get( pathKey( start, end ) );
+    if( e != null ) {
+      hits++;
+      return e.path;
+    }
+    return null;
+  }
+
+  /*
+   * Looks up a cached shortest path tree. Only counts as a hit or miss for the
+   * request as a whole, since it is asked right after getPath missed.
+   * @param start - id of the start vertex
+   * @param graphVersion - current version of the graph
+   * @return the shortest path tree from start, or null if not cached
+   */
+  public synchronized ShortestPathTree getTree( int start, long graphVersion ) {
+    checkVersion( graphVersion );
+    Entry e = entries.get( treeKey( start ) );
+    if( e != null ) {
+      treeHits++;
+      return e.tree;
+    }
+    misses++;
+    return null;
+  }
+
+  /*
+   * Records that a request missed and was searched without consulting the trees.
+   */
+  public synchronized void countMiss() {
+    misses++;
+  }
+
+  /*
+   * Adds a path to the cache.
+   * @param start - id of the start vertex
+   * @param end - id of the end vertex
+   * @param path - the nodes along the path; the cache keeps this list, so it must not be modified
+   * @param graphVersion - version of the graph the path was found in
+   */
+  public synchronized void putPath( int start, int end, ArrayList<Node> path, long graphVersion ) {
+    Entry e = new Entry();
+    e.path = path;
+    e.bytes = 64 + 8L * path.size();
+    put( pathKey( start, end ), e, graphVersion );
+  }
+
+  /*
+   * Adds a shortest path tree to the cache.
+   * @param start - id of the start vertex (the root of the tree)
+   * @param tree - the shortest path tree from start
+   * @param graphVersion - version of the graph the tree was found in
+   */
+  public synchronized void putTree( int start, ShortestPathTree tree, long graphVersion ) {
+    Entry e = new Entry();
+    e.tree = tree;
+    e.bytes = 64 + 12L * tree.nodeCount();
+    put( treeKey( start ), e, graphVersion );
+  }
+
+  /*
+   * Adds an entry and evicts least recently used entries until the cache is
+   * within its bounds again. Entries for an old graph version are not added.
+   */
+  private void put( long key, Entry e, long graphVersion ) {
+    checkVersion( graphVersion );
+    if( graphVersion != version || e.bytes > maxBytes )
+      return;
+    Entry old = entries.put( key, e );
+    if( old != null )
+      bytes -= old.bytes;
+    bytes += e.bytes;
+
+    Iterator<Entry> it = entries.values().iterator();
+    while( (entries.size() > maxEntries || bytes > maxBytes) && it.hasNext() ) {
+      Entry eldest = it.next();
+      it.remove();
+      bytes -= eldest.bytes;
+      evictions++;
+    }
+  }
+
+  /*
+   * Drops the entries an edge change may have made wrong, keeps the rest, and
+   * moves them to the new graph version.
+   * 
+   * When the edge gets longer, only paths and trees that use it are wrong. When it
+   * gets shorter, a tree is wrong if the edge is in it or now gives a shorter way to
+   * one of its ends, and a path that does not use the edge is only kept if going
+   * through the edge would be longer even with straight lines to and from its ends.
+   *
+   * @param g - the graph with the new length in place
+   * @param u - vertex id of one end of the edge
+   * @param v - vertex id of the other end
+   * @param oldLength - the length of the edge before the change
+   * @param newLength - the length of the edge after the change
+   * @param graphVersion - the version of the graph with the change
+   */
+  public synchronized void edgeChanged( CompactGraph g, int u, int v, double oldLength, double newLength,
+                                        long graphVersion ) {
+    if( graphVersion <= version )
+      return;
+    boolean shorter = newLength < oldLength;
+    Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator();
+    while( it.hasNext() ) {
+      Map.Entry<Long, Entry> next = it.next();
+      Entry e = next.getValue();
+      int start = (int)(next.getKey() >>> 32);
+      boolean affected;
+      if( e.tree != null ) {
+        ShortestPathTree t = e.tree;
+        affected = t.parent( v ) == u || t.parent( u ) == v
+          || (shorter && (t.distance( u ) + newLength < t.distance( v ) || t.distance( v ) + newLength < t.distance( u )));
+      } else {
+        affected = usesEdge( e.path, u, v ) ? !shorter : shorter && mayShorten( g, e.path, start, u, v, newLength );
+      }
+      if( affected ) {
+        it.remove();
+        bytes -= e.bytes;
+        edgeDrops++;
+      }
+    }
+    version = graphVersion;
+  }
+
+  /*
+   * @return true if the path steps from u to v or from v to u
+   */
+  private static boolean usesEdge( ArrayList<Node> path, int u, int v ) {
+    for( int i = 1; i < path.size(); i++ ) {
+      int a = path.get( i - 1 ).getId(), b = path.get( i ).getId();
+      if( (a == u && b == v) || (a == v && b == u) )
+        return true;
+    }
+    return false;
+  }
+
+  /*
+   * @return true unless every way through the shortened edge is provably at least
+   *         as long as the path (a path that does not begin at start was unreachable)
+   */
+  private static boolean mayShorten( CompactGraph g, ArrayList<Node> path, int start, int u, int v,
+                                     double newLength ) {
+    int s = path.get( 0 ).getId(), t = path.get( path.size() - 1 ).getId();
+    if( s != start )
+      return true;
+    double length = 0;
+    for( int i = 1; i < path.size(); i++ ) {
+      int a = path.get( i - 1 ).getId(), b = path.get( i ).getId();
+      double step = Double.MAX_VALUE;
+      for( int arc = g.offsets[a]; arc < g.offsets[a + 1]; arc++ ) {
+        if( g.targets[arc] == b )
+          step = Math.min( step, g.lengths[arc] );
+      }
+      length += step;
+    }
+    double through = newLength + Math.min( g.greatCircleDistance( s, u ) + g.greatCircleDistance( v, t ),
+                                           g.greatCircleDistance( s, v ) + g.greatCircleDistance( u, t ) );
+    return through < length;
+  }
+
+  /*
+   * Drops every entry if the graph has changed since they were added.
+   * Requests still running against an older version cannot add entries back.
+   */
+  private void checkVersion( long graphVersion ) {
+    if( graphVersion > version ) {
+      if( !entries.isEmpty() )
+        invalidations++;
+      entries.clear();
+      bytes = 0;
+      version = graphVersion;
+    }
+  }
+
+  /*
+   * Removes every entry.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    bytes = 0;
+  }
+
+  private static long pathKey( int start, int end ) {
+    return ((long)start << 32) | (end & 0xFFFFFFFFL);
+  }
+
+  private static long treeKey( int start ) {
+    return ((long)start << 32) | 0xFFFFFFFFL; //end = -1 is never a vertex
+  }
+
+  /* @return number of requests answered from a cached path */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /* @return number of requests answered from a cached tree */
+  public synchronized long getTreeHits() {
+    return treeHits;
+  }
+
+  /* @return number of requests that needed a search */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /* @return number of entries evicted to stay within the bounds */
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /* @return number of times the cache was dropped because the graph changed */
+  public synchronized long getInvalidations() {
+    return invalidations;
+  }
+
+  /* @return number of entries dropped because an edge they may use was closed or reweighted */
+  public synchronized long getEdgeDrops() {
+    return edgeDrops;
+  }
+
+  /* @return number of entries in the cache */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /* @return estimated bytes held by the cache */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  /*
+   * @return a one-line summary of the counters
+   */
+  public synchronized String toString() {
+    return "RouteCache[entries=" + entries.size() + ", bytes=" + bytes + ", hits=" + hits
+      + ", treeHits=" + treeHits + ", misses=" + misses + ", evictions=" + evictions
+      + ", invalidations=" + invalidations + ", edgeDrops=" + edgeDrops + "]";
+  }
+
+  /*
+   * A cached path or tree.
+   */
+  private static class Entry {
+    ArrayList<Node> path; //nodes of a cached path
+    ShortestPathTree tree; //a cached tree
+    long bytes; //estimated size
+  }
+}
@@ -0,0 +1,23 @@
+/*****************************************************************
+  * RouteMode.java
+  *
+  * The search algorithms WendyGraph.route can use to answer a
+  * point-to-point query. Every mode returns a shortest path; they
+  * differ in how much of the graph they explore to find it.
+  ****************************************************************/
+public enum RouteMode {
+  /* Dijkstra's algorithm, stopping when the end node is settled */
+  DIJKSTRA,
+  
+  /* A* search, guided by the great circle distance to the end node */
+  ASTAR,
+  
+  /* Dijkstra's algorithm from both ends at once, meeting in the middle */
+  BIDIRECTIONAL,
+  
+  /* Upward search in the contraction hierarchy, built on first use */
+  CH,
+  
+  /* A* search, guided by landmark distance tables (ALT), built on first use */
+  ALT
+}
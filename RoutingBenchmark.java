@@ -0,0 +1,114 @@
+/*****************************************************************
+  * RoutingBenchmark.java
+  *
+  * Compares the routing modes of WendyGraph on random point-to-point
+  * queries: how many vertices each one settles, how long a query takes,
+  * and whether every mode finds paths of the same length.
+  *
+  * Usage: java RoutingBenchmark [mapFile] [numQueries]
+  ****************************************************************/
+import java.util.*;
+
+public class RoutingBenchmark {
+
+  public static void main( String[] args ) {
+    String fileName = args.length > 0 ? args[0] : "wellesleycoord.txt";
+    int numQueries = args.length > 1 ? Integer.parseInt( args[1] ) : 1000;
+
+    WendyGraph w = new WendyGraph( fileName );
+    System.out.println( "Map: " + fileName + " (" + w.vertices.size() + " vertices)" );
+
+    String[][] pairs = randomPairs( w, numQueries, 42 );
+    double[] expected = new double[numQueries];
+
+    //the original implementation settled every reachable vertex before reading the path
+    SearchContext ctx = w.newSearchContext();
+    long settled = 0;
+    long start = System.nanoTime();
+    for( int i = 0; i < numQueries; i++ ) {
+      w.dijkstra( ctx, pairs[i][0] );
+      settled += ctx.getSettledCount();
+    }
+    report( "full Dijkstra", settled, System.nanoTime() - start, numQueries, settled );
+    long baseline = settled;
+    
+    //preprocessing for RouteMode.CH, so it is not counted in the query times
+    ContractionHierarchy h = w.contractionHierarchy();
+    System.out.printf( "CH preprocessing: %.1f ms, %d shortcuts (%d edges)%n",
+                      h.getBuildMillis(), h.getShortcutCount(), h.getGraph().arcCount() / 2 );
+    
+    long landmarkStart = System.nanoTime();
+    Landmarks lm = w.landmarks();
+    System.out.printf( "ALT preprocessing: %.1f ms, %d landmarks%n",
+                      (System.nanoTime() - landmarkStart) / 1E6, lm.size() );
+    
+    long[] nanos = new long[RouteMode.values().length];
+
+    for( RouteMode mode : RouteMode.values() ) {
+      //warm up, so the timings are not of the interpreter
+      for( int i = 0; i < numQueries; i++ )
+        w.route( ctx, pairs[i][0], pairs[i][1], mode );
+      
+      settled = 0;
+      int mismatches = 0;
+      start = System.nanoTime();
+      for( int i = 0; i < numQueries; i++ ) {
+        ArrayList<Node> path = w.route( ctx, pairs[i][0], pairs[i][1], mode );
+        settled += ctx.getSettledCount();
+        double length = pathLength( path );
+        if( mode == RouteMode.DIJKSTRA )
+          expected[i] = length;
+        else if( Math.abs( length - expected[i] ) > 1E-6 )
+          mismatches++;
+      }
+      nanos[mode.ordinal()] = System.nanoTime() - start;
+      report( mode.toString(), settled, nanos[mode.ordinal()], numQueries, baseline );
+      if( mismatches > 0 )
+        System.out.println( "  " + mismatches + " paths differ in length from DIJKSTRA" );
+    }
+    System.out.printf( "CH query speedup over DIJKSTRA: %.1fx%n",
+                      (double)nanos[RouteMode.DIJKSTRA.ordinal()] / nanos[RouteMode.CH.ordinal()] );
+  }
+
+  /*
+   * Picks random start and end names.
+   * @param w - the graph
+   * @param n - number of pairs
+   * @param seed - random seed, so runs are comparable
+   * @return n pairs of {startName, endName}
+   */
+  static String[][] randomPairs( WendyGraph w, int n, long seed ) {
+    Random random = new Random( seed );
+    String[][] pairs = new String[n][2];
+    for( int i = 0; i < n; i++ ) {
+      pairs[i][0] = w.vertices.get( random.nextInt( w.vertices.size() ) ).getName();
+      pairs[i][1] = w.vertices.get( random.nextInt( w.vertices.size() ) ).getName();
+    }
+    return pairs;
+  }
+
+  /*
+   * Adds up the straight-line lengths of the legs of a path, which is the
+   * length of each Edge along it.
+   * @param path - the nodes along a path
+   * @return the length in meters
+   */
+  static double pathLength( ArrayList<Node> path ) {
+    double length = 0;
+    for( int i = 1; i < path.size(); i++ ) {
+      Node a = path.get( i - 1 );
+      Node b = path.get( i );
+      length += Edge.getGreatCircleDistance( a.getLat(), a.getLon(), b.getLat(), b.getLon() );
+    }
+    return length;
+  }
+
+  /*
+   * Prints one line of results.
+   */
+  static void report( String name, long settled, long nanos, int numQueries, long baseline ) {
+    System.out.printf( "%-16s %10.1f settled/query %8.1f us/query %6.1fx fewer settled%n",
+                      name, (double)settled / numQueries, nanos / 1000.0 / numQueries,
+                      settled == 0 ? 0.0 : (double)baseline / settled );
+  }
+}
@@ -0,0 +1,154 @@
+/*****************************************************************
+  * RoutingMetrics.java
+  *
+  * Collects what the routing queries of a WendyGraph cost, per query
+  * type: how many queries ran, how many named a node that does not
+  * exist, how many vertices they settled and relaxed, how many priority
+  * queue operations they made, and a histogram of their latencies.
+  *
+  * The query types are the RouteMode names for route() and runDijkstra(),
+  * and "tree", "matrix" (one per source row), "reachable" and
+  * "kShortestPaths" for the other queries.
+  *
+  * Metrics are off until WendyGraph.setMetrics is given an instance; when
+  * off, a query pays only for a few counter increments in its
+  * SearchContext. Safe to record into from any number of threads.
+  ****************************************************************/
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RoutingMetrics {
+
+  private final ConcurrentHashMap<String, QueryStats> stats = new ConcurrentHashMap<String, QueryStats>();
+
+  /*
+   * Records one finished query.
+   *
+   * @param type - the kind of query
+   * @param nanos - how long it took
+   * @param ctx - the search state it ran in, with counters reset when it started
+   */
+  public void record( String type, long nanos, SearchContext ctx ) {
+    QueryStats s = stats( type );
+    s.count.incrementAndGet();
+    s.settled.addAndGet( ctx.getSettledTotal() );
+    s.relaxed.addAndGet( ctx.getRelaxedTotal() );
+    s.heapInserts.addAndGet( ctx.getHeapInserts() );
+    s.heapRemoves.addAndGet( ctx.getHeapRemoves() );
+    s.latency.record( nanos );
+  }
+
+  /*
+   * Records a query that was refused because it named a node that does not exist.
+   * @param type - the kind of query
+   */
+  public void recordInvalid( String type ) {
+    stats( type ).invalid.incrementAndGet();
+  }
+
+  private QueryStats stats( String type ) {
+    QueryStats s = stats.get( type );
+    if( s == null ) {
+      QueryStats created = new QueryStats();
+      s = stats.putIfAbsent( type, created );
+      if( s == null )
+        s = created;
+    }
+    return s;
+  }
+
+  /*
+   * @param type - the kind of query
+   * @return what the queries of that type cost, or null if none were recorded
+   */
+  public QueryStats get( String type ) {
+    return stats.get( type );
+  }
+
+  /*
+   * @return the query types recorded so far, in alphabetical order
+   */
+  public ArrayList<String> getQueryTypes() {
+    ArrayList<String> types = new ArrayList<String>( stats.keySet() );
+    Collections.sort( types );
+    return types;
+  }
+
+  /*
+   * Forgets everything recorded so far.
+   */
+  public void clear() {
+    stats.clear();
+  }
+
+  /*
+   * @return one line per query type with its counts, average work and latency percentiles
+   */
+  public String toString() {
+    StringBuilder s = new StringBuilder();
+    for( String type : getQueryTypes() ) {
+      QueryStats q = stats.get( type );
+      s.append( String.format( "%-15s %s%n", type, q ) );
+    }
+    return s.toString();
+  }
+
+  /*
+   * What the queries of one type cost in total.
+   */
+  public static class QueryStats {
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong invalid = new AtomicLong();
+    private final AtomicLong settled = new AtomicLong();
+    private final AtomicLong relaxed = new AtomicLong();
+    private final AtomicLong heapInserts = new AtomicLong();
+    private final AtomicLong heapRemoves = new AtomicLong();
+
+    /* @return the number of queries that ran */
+    public long getCount() {
+      return count.get();
+    }
+
+    /* @return the number of queries refused for naming a node that does not exist */
+    public long getInvalid() {
+      return invalid.get();
+    }
+
+    /* @return the number of vertices settled by all queries */
+    public long getSettled() {
+      return settled.get();
+    }
+
+    /* @return the number of times any query found a shorter distance to a vertex */
+    public long getRelaxed() {
+      return relaxed.get();
+    }
+
+    /* @return the number of priority queue inserts by all queries */
+    public long getHeapInserts() {
+      return heapInserts.get();
+    }
+
+    /* @return the number of priority queue removes by all queries */
+    public long getHeapRemoves() {
+      return heapRemoves.get();
+    }
+
+    /* @return the latencies of the queries */
+    public LatencyHistogram getLatency() {
+      return latency;
+    }
+
+    /*
+     * @return counts, work per query and latency percentiles in one line
+     */
+    public String toString() {
+      long n = Math.max( 1, getCount() );
+      return String.format( "queries=%d invalid=%d settled/q=%.0f relaxed/q=%.0f inserts/q=%.0f removes/q=%.0f %s",
+                            getCount(), getInvalid(), (double)getSettled() / n, (double)getRelaxed() / n,
+                            (double)getHeapInserts() / n, (double)getHeapRemoves() / n, latency );
+    }
+  }
+}
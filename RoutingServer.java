@@ -0,0 +1,483 @@
+/*****************************************************************
+  * RoutingServer.java
+  *
+  * A headless HTTP/JSON front end to WendyGraph for kiosks and the web
+  * app. The graph is loaded once and shared by every request; each
+  * search runs on its own thread's SearchContext, so requests never see
+  * each other's state.
+  *
+  * Endpoints (GET, answers are JSON):
+  *   /route?from=NAME&to=NAME[&mode=DIJKSTRA|ASTAR|BIDIRECTIONAL|CH|ALT]
+  *   /matrix?sources=NAME,NAME,...&targets=NAME,NAME,...
+  *   /nearest?lat=LAT&lon=LON[&k=K]
+  *   /metrics
+  *
+  * Searches run on a fixed pool of worker threads with a bounded queue.
+  * A request that finds the queue full is answered 503 at once, and one
+  * that is not answered within the timeout gets 504. Latency and outcome
+  * counts are kept per endpoint and served by /metrics, together with
+  * the graph's RoutingMetrics: the work and latency of each kind of search.
+  *
+  * main() builds the spatial index, contraction hierarchy and landmarks
+  * before serving, so no request builds them under its timeout (where a
+  * 504 would interrupt the build, or leave it holding the graph's lock).
+  *
+  * Usage: java RoutingServer [mapFile] [port] [workers] [queueSize] [timeoutMillis]
+  ****************************************************************/
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RoutingServer {
+
+  private final WendyGraph graph;
+  private final HttpServer server;
+  private final ExecutorService dispatcher; //threads that read requests and write answers
+  private final ThreadPoolExecutor workers; //threads that search
+  private final long timeoutMillis;
+  private final LinkedHashMap<String, EndpointStats> stats = new LinkedHashMap<String, EndpointStats>();
+
+  /*
+   * Creates a server; call start to accept requests. Turns on the graph's
+   * RoutingMetrics if they are off, so /metrics can report them.
+   *
+   * @param graph - the graph to route on
+   * @param port - the local port to listen on, 0 for any free port
+   * @param workerCount - number of searches to run at once
+   * @param queueSize - number of requests that may wait for a worker before new ones get 503
+   * @param timeoutMillis - how long a request may take before it gets 504
+   */
+  public RoutingServer( WendyGraph graph, int port, int workerCount, int queueSize, long timeoutMillis )
+    throws IOException {
+    this.graph = graph;
+    this.timeoutMillis = timeoutMillis;
+    if( graph.getMetrics() == null )
+      graph.setMetrics( new RoutingMetrics() );
+    this.workers = new ThreadPoolExecutor( workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                                           new ArrayBlockingQueue<Runnable>( queueSize ),
+                                           daemonThreads( "routing-worker" ) );
+    this.dispatcher = Executors.newCachedThreadPool( daemonThreads( "routing-http" ) );
+
+    server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), port ), 0 );
+    server.setExecutor( dispatcher );
+    server.createContext( "/route", new Endpoint( "route" ) {
+      String answer( Map<String, String> params ) throws RequestException {
+        return route( params );
+      }
+    } );
+    server.createContext( "/matrix", new Endpoint( "matrix" ) {
+      String answer( Map<String, String> params ) throws RequestException {
+        return matrix( params );
+      }
+    } );
+    server.createContext( "/nearest", new Endpoint( "nearest" ) {
+      String answer( Map<String, String> params ) throws RequestException {
+        return nearest( params );
+      }
+    } );
+    server.createContext( "/metrics", new HttpHandler() {
+      public void handle( HttpExchange exchange ) throws IOException {
+        send( exchange, 200, metrics() );
+      }
+    } );
+  }
+
+  /* Starts accepting requests. */
+  public void start() {
+    server.start();
+  }
+
+  /*
+   * Stops accepting requests, waits up to a second for open exchanges, and stops the threads.
+   */
+  public void stop() {
+    server.stop( 1 );
+    workers.shutdownNow();
+    dispatcher.shutdownNow();
+  }
+
+  /* @return the port the server listens on */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /*
+   * /route: the shortest path between two nodes.
+   */
+  private String route( Map<String, String> params ) throws RequestException {
+    Node from = node( params, "from" );
+    Node to = node( params, "to" );
+    RouteMode mode = RouteMode.BIDIRECTIONAL;
+    if( params.containsKey( "mode" ) ) {
+      try {
+        mode = RouteMode.valueOf( params.get( "mode" ).toUpperCase() );
+      } catch( IllegalArgumentException e ) {
+        throw new RequestException( 400, "Unknown mode " + params.get( "mode" ) );
+      }
+    }
+
+    ArrayList<Node> path = graph.route( from.getName(), to.getName(), mode );
+    boolean reachable = path.get( 0 ) == from;
+    StringBuilder json = new StringBuilder();
+    json.append( "{\"from\":" ).append( quote( from.getName() ) )
+        .append( ",\"to\":" ).append( quote( to.getName() ) )
+        .append( ",\"mode\":\"" ).append( mode ).append( "\"" )
+        .append( ",\"reachable\":" ).append( reachable )
+        .append( ",\"length\":" ).append( reachable ? number( graph.getPathLength( path ) ) : "null" )
+        .append( ",\"nodes\":[" );
+    if( reachable ) {
+      for( int i = 0; i < path.size(); i++ ) {
+        if( i > 0 ) json.append( ',' );
+        appendNode( json, path.get( i ) );
+      }
+    }
+    return json.append( "]}" ).toString();
+  }
+
+  /*
+   * /matrix: the distance from every source to every target.
+   */
+  private String matrix( Map<String, String> params ) throws RequestException {
+    String[] sources = names( params, "sources" );
+    String[] targets = names( params, "targets" );
+    //on this worker thread, so the pool bounds the work and a timeout interrupts the searches
+    double[] distances = graph.distanceMatrix( sources, targets, false );
+
+    StringBuilder json = new StringBuilder( "{\"sources\":" );
+    appendNames( json, sources );
+    json.append( ",\"targets\":" );
+    appendNames( json, targets );
+    json.append( ",\"distances\":[" );
+    for( int i = 0; i < sources.length; i++ ) {
+      if( i > 0 ) json.append( ',' );
+      json.append( '[' );
+      for( int j = 0; j < targets.length; j++ ) {
+        if( j > 0 ) json.append( ',' );
+        double d = distances[i * targets.length + j];
+        json.append( d == Double.MAX_VALUE ? "null" : number( d ) );
+      }
+      json.append( ']' );
+    }
+    return json.append( "]}" ).toString();
+  }
+
+  /*
+   * /nearest: the k nodes closest to a point.
+   */
+  private String nearest( Map<String, String> params ) throws RequestException {
+    double lat = number( params, "lat" );
+    double lon = number( params, "lon" );
+    int k = params.containsKey( "k" ) ? (int)number( params, "k" ) : 1;
+    if( k < 1 || k > 1000 )
+      throw new RequestException( 400, "k must be between 1 and 1000" );
+
+    StringBuilder json = new StringBuilder( "{\"nodes\":[" );
+    ArrayList<Node> nodes = graph.nearestNodes( lat, lon, k );
+    for( int i = 0; i < nodes.size(); i++ ) {
+      if( i > 0 ) json.append( ',' );
+      appendNode( json, nodes.get( i ) );
+    }
+    return json.append( "]}" ).toString();
+  }
+
+  /*
+   * /metrics: request counts and latency percentiles of every endpoint.
+   */
+  private String metrics() {
+    StringBuilder json = new StringBuilder( "{\"workers\":{\"active\":" ).append( workers.getActiveCount() )
+      .append( ",\"queued\":" ).append( workers.getQueue().size() ).append( "}" );
+    synchronized( stats ) {
+      for( Map.Entry<String, EndpointStats> e : stats.entrySet() ) {
+        EndpointStats s = e.getValue();
+        json.append( ",\"" ).append( e.getKey() ).append( "\":{" )
+            .append( "\"ok\":" ).append( s.ok.get() )
+            .append( ",\"clientErrors\":" ).append( s.clientErrors.get() )
+            .append( ",\"serverErrors\":" ).append( s.serverErrors.get() )
+            .append( ",\"rejected\":" ).append( s.rejected.get() )
+            .append( ",\"timedOut\":" ).append( s.timedOut.get() )
+            .append( ",\"meanMicros\":" ).append( Math.round( s.latency.getMeanMicros() ) )
+            .append( ",\"p50Micros\":" ).append( s.latency.getPercentileMicros( 50 ) )
+            .append( ",\"p90Micros\":" ).append( s.latency.getPercentileMicros( 90 ) )
+            .append( ",\"p99Micros\":" ).append( s.latency.getPercentileMicros( 99 ) )
+            .append( ",\"maxMicros\":" ).append( s.latency.getMaxMicros() )
+            .append( '}' );
+      }
+    }
+    RoutingMetrics m = graph.getMetrics();
+    if( m != null ) {
+      json.append( ",\"search\":{" );
+      ArrayList<String> types = m.getQueryTypes();
+      for( int i = 0; i < types.size(); i++ ) {
+        RoutingMetrics.QueryStats s = m.get( types.get( i ) );
+        LatencyHistogram latency = s.getLatency();
+        if( i > 0 ) json.append( ',' );
+        json.append( quote( types.get( i ) ) ).append( ":{" )
+            .append( "\"queries\":" ).append( s.getCount() )
+            .append( ",\"invalid\":" ).append( s.getInvalid() )
+            .append( ",\"settled\":" ).append( s.getSettled() )
+            .append( ",\"relaxed\":" ).append( s.getRelaxed() )
+            .append( ",\"heapInserts\":" ).append( s.getHeapInserts() )
+            .append( ",\"heapRemoves\":" ).append( s.getHeapRemoves() )
+            .append( ",\"p50Micros\":" ).append( latency.getPercentileMicros( 50 ) )
+            .append( ",\"p90Micros\":" ).append( latency.getPercentileMicros( 90 ) )
+            .append( ",\"p99Micros\":" ).append( latency.getPercentileMicros( 99 ) )
+            .append( ",\"maxMicros\":" ).append( latency.getMaxMicros() )
+            .append( '}' );
+      }
+      json.append( '}' );
+    }
+    return json.append( '}' ).toString();
+  }
+
+  /*
+   * Handles one endpoint: parses the query, runs the answer on a worker within the
+   * timeout, writes the JSON, and records the outcome and latency.
+   */
+  private abstract class Endpoint implements HttpHandler {
+    private final EndpointStats endpointStats = new EndpointStats();
+
+    Endpoint( String name ) {
+      synchronized( stats ) {
+        stats.put( name, endpointStats );
+      }
+    }
+
+    /*
+     * @param params - the decoded query parameters
+     * @return the JSON answer
+     */
+    abstract String answer( Map<String, String> params ) throws RequestException;
+
+    public void handle( HttpExchange exchange ) throws IOException {
+      long start = System.nanoTime();
+      int status;
+      String body;
+      Future<String> future = null;
+      try {
+        if( !exchange.getRequestMethod().equals( "GET" ) )
+          throw new RequestException( 405, "Only GET is supported" );
+        final Map<String, String> params = parseQuery( exchange.getRequestURI().getRawQuery() );
+        future = workers.submit( new Callable<String>() {
+          public String call() throws RequestException {
+            return answer( params );
+          }
+        } );
+        body = future.get( timeoutMillis, TimeUnit.MILLISECONDS );
+        status = 200;
+        endpointStats.ok.incrementAndGet();
+      } catch( RequestException e ) {
+        status = e.status;
+        body = error( e.getMessage() );
+        endpointStats.clientErrors.incrementAndGet();
+      } catch( RejectedExecutionException e ) {
+        status = 503;
+        body = error( "Server busy, try again" );
+        exchange.getResponseHeaders().set( "Retry-After", "1" );
+        endpointStats.rejected.incrementAndGet();
+      } catch( TimeoutException e ) {
+        future.cancel( true );
+        status = 504;
+        body = error( "Request took longer than " + timeoutMillis + " ms" );
+        endpointStats.timedOut.incrementAndGet();
+      } catch( ExecutionException e ) {
+        if( e.getCause() instanceof RequestException ) {
+          status = ((RequestException)e.getCause()).status;
+          body = error( e.getCause().getMessage() );
+          endpointStats.clientErrors.incrementAndGet();
+        } else {
+          status = 500;
+          body = error( "Internal error: " + e.getCause() );
+          endpointStats.serverErrors.incrementAndGet();
+        }
+      } catch( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        status = 503;
+        body = error( "Server is stopping" );
+        endpointStats.rejected.incrementAndGet();
+      }
+      send( exchange, status, body );
+      endpointStats.latency.record( System.nanoTime() - start );
+    }
+  }
+
+  /*
+   * Outcome counts and latencies of one endpoint.
+   */
+  private static class EndpointStats {
+    final LatencyHistogram latency = new LatencyHistogram();
+    final AtomicLong ok = new AtomicLong();
+    final AtomicLong clientErrors = new AtomicLong(); //4xx
+    final AtomicLong serverErrors = new AtomicLong(); //500
+    final AtomicLong rejected = new AtomicLong(); //503
+    final AtomicLong timedOut = new AtomicLong(); //504
+  }
+
+  /*
+   * A request that cannot be answered, with the HTTP status to answer it with.
+   */
+  private static class RequestException extends Exception {
+    private static final long serialVersionUID = 1L;
+    
+    final int status;
+
+    RequestException( int status, String message ) {
+      super( message );
+      this.status = status;
+    }
+  }
+
+  /*
+   * Decodes a query string such as "from=BATES&to=SCICTR".
+   */
+  private static Map<String, String> parseQuery( String query ) throws RequestException {
+    HashMap<String, String> params = new HashMap<String, String>();
+    if( query == null )
+      return params;
+    try {
+      for( String pair : query.split( "&" ) ) {
+        if( pair.isEmpty() ) continue;
+        int eq = pair.indexOf( '=' );
+        String key = URLDecoder.decode( eq < 0 ? pair : pair.substring( 0, eq ), "UTF-8" );
+        String value = eq < 0 ? "" : URLDecoder.decode( pair.substring( eq + 1 ), "UTF-8" );
+        params.put( key, value );
+      }
+    } catch( UnsupportedEncodingException | IllegalArgumentException e ) {
+      throw new RequestException( 400, "Malformed query string" );
+    }
+    return params;
+  }
+
+  private Node node( Map<String, String> params, String key ) throws RequestException {
+    String name = params.get( key );
+    if( name == null )
+      throw new RequestException( 400, "Missing parameter " + key );
+    Node n = graph.getNode( name );
+    if( n == null )
+      throw new RequestException( 404, "No node named " + name );
+    return n;
+  }
+
+  private String[] names( Map<String, String> params, String key ) throws RequestException {
+    String list = params.get( key );
+    if( list == null || list.isEmpty() )
+      throw new RequestException( 400, "Missing parameter " + key );
+    String[] names = list.split( "," );
+    for( String name : names ) {
+      if( graph.getNode( name ) == null )
+        throw new RequestException( 404, "No node named " + name );
+    }
+    return names;
+  }
+
+  private static double number( Map<String, String> params, String key ) throws RequestException {
+    String value = params.get( key );
+    if( value == null )
+      throw new RequestException( 400, "Missing parameter " + key );
+    try {
+      double d = Double.parseDouble( value );
+      if( Double.isNaN( d ) || Double.isInfinite( d ) )
+        throw new NumberFormatException();
+      return d;
+    } catch( NumberFormatException e ) {
+      throw new RequestException( 400, "Parameter " + key + " is not a number: " + value );
+    }
+  }
+
+  private static void appendNode( StringBuilder json, Node n ) {
+    json.append( "{\"name\":" ).append( quote( n.getName() ) )
+        .append( ",\"lat\":" ).append( n.getLat() )
+        .append( ",\"lon\":" ).append( n.getLon() )
+        .append( ",\"building\":" ).append( n.getisBuilding() ).append( '}' );
+  }
+
+  private static void appendNames( StringBuilder json, String[] names ) {
+    json.append( '[' );
+    for( int i = 0; i < names.length; i++ ) {
+      if( i > 0 ) json.append( ',' );
+      json.append( quote( names[i] ) );
+    }
+    json.append( ']' );
+  }
+
+  private static String number( double d ) {
+    return String.format( Locale.ROOT, "%.2f", d );
+  }
+
+  private static String error( String message ) {
+    return "{\"error\":" + quote( message ) + "}";
+  }
+
+  /*
+   * @return s as a JSON string literal
+   */
+  private static String quote( String s ) {
+    StringBuilder q = new StringBuilder( s.length() + 2 ).append( '"' );
+    for( int i = 0; i < s.length(); i++ ) {
+      char c = s.charAt( i );
+      if( c == '"' || c == '\\' )
+        q.append( '\\' ).append( c );
+      else if( c < 0x20 )
+        q.append( String.format( "\\u%04x", (int)c ) );
+      else
+        q.append( c );
+    }
+    return q.append( '"' ).toString();
+  }
+
+  private static void send( HttpExchange exchange, int status, String body ) throws IOException {
+    byte[] bytes = body.getBytes( StandardCharsets.UTF_8 );
+    exchange.getResponseHeaders().set( "Content-Type", "application/json; charset=utf-8" );
+    exchange.sendResponseHeaders( status, bytes.length );
+    OutputStream out = exchange.getResponseBody();
+    try {
+      out.write( bytes );
+    } finally {
+      out.close();
+    }
+  }
+
+  /*
+   * @return a factory for named daemon threads, so the pools never keep the JVM alive
+   */
+  private static ThreadFactory daemonThreads( final String name ) {
+    return new ThreadFactory() {
+      private int count;
+
+      public synchronized Thread newThread( Runnable r ) {
+        Thread t = new Thread( r, name + "-" + (++count) );
+        t.setDaemon( true );
+        return t;
+      }
+    };
+  }
+
+  /* Loads a map and serves it until the process is stopped. */
+  public static void main( String[] args ) throws IOException {
+    String mapFile = args.length > 0 ? args[0] : "wellesleycoord.txt";
+    int port = args.length > 1 ? Integer.parseInt( args[1] ) : 8080;
+    int workerCount = args.length > 2 ? Integer.parseInt( args[2] ) : Runtime.getRuntime().availableProcessors();
+    int queueSize = args.length > 3 ? Integer.parseInt( args[3] ) : 64;
+    long timeoutMillis = args.length > 4 ? Long.parseLong( args[4] ) : 2000;
+
+    long start = System.nanoTime();
+    WendyGraph graph = WendyGraph.load( mapFile );
+    //built now rather than by the first /nearest, CH and ALT requests
+    graph.spatialIndex();
+    graph.contractionHierarchy();
+    graph.landmarks();
+    final RoutingServer server = new RoutingServer( graph, port, workerCount, queueSize, timeoutMillis );
+    Runtime.getRuntime().addShutdownHook( new Thread() {
+      public void run() {
+        server.stop();
+      }
+    } );
+    server.start();
+    System.out.printf( "Serving %s (%d vertices, loaded in %.0f ms) on http://localhost:%d/ with %d workers%n",
+                       mapFile, graph.vertices.size(), (System.nanoTime() - start) / 1E6, server.getPort(),
+                       workerCount );
+  }
+}
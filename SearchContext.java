@@ -0,0 +1,213 @@
+/*****************************************************************
+  * SearchContext.java
+  *
+  * Holds the working state of one shortest path search in WendyGraph:
+  * the distance and parent vertex of every vertex, the heap, and the
+  * vertices a search has to avoid.
+  *
+  * A SearchContext belongs to one thread at a time, but any number of
+  * contexts can search the same WendyGraph at once, because the graph
+  * itself is never written to by a search.
+  *
+  * Reusing a context does not allocate or clear anything. Each search
+  * starts a new generation, and a vertex's distance only counts if it was
+  * stamped with the current generation, so a search only touches the
+  * vertices it actually reaches.
+  *
+  * A search gives up with a CancellationException if its thread is
+  * interrupted; the flag is checked every few thousand settled vertices,
+  * so cancelling is prompt without slowing the search down.
+  *
+  * Created by WendyGraph.newSearchContext()
+  ****************************************************************/
+public class SearchContext {
+
+  private double[] dist; //tentative distance of each vertex
+  private int[] parent; //previous vertex of each vertex on its shortest path
+  private int[] reached; //generation in which dist/parent of a vertex were last set
+  private int[] settled; //generation in which a vertex was last settled
+  private int generation; //generation of the current search
+  private int settledCount; //number of vertices settled in the current search
+  private long settledTotal, relaxedTotal; //vertices settled and distances lowered since resetCounters
+  private static final int CANCEL_CHECK_MASK = 4095; //check for interrupts once per 4096 settled vertices
+  private int[] blocked; //block generation in which a vertex was last blocked
+  private int blockGeneration; //current set of blocked vertices, kept across searches
+
+  DistanceHeap heap; //priority queue of the current search
+  private SearchContext backward; //state of the backward half of a bidirectional search
+
+  /*
+   * Creates a context for graphs of up to nodeCount vertices.
+   * @param nodeCount - number of vertices of the graph to be searched
+   */
+  public SearchContext( int nodeCount ) {
+    dist = new double[nodeCount];
+    parent = new int[nodeCount];
+    reached = new int[nodeCount];
+    settled = new int[nodeCount];
+    blocked = new int[nodeCount];
+    heap = new DistanceHeap( 64 );
+    generation = 1; //arrays start at 0, so no vertex counts as reached before the first search
+    blockGeneration = 1;
+  }
+
+  /*
+   * Starts a new search, forgetting the results of the previous one.
+   * @param nodeCount - number of vertices of the graph to be searched
+   */
+  void reset( int nodeCount ) {
+    if( nodeCount > dist.length ) {
+      dist = new double[nodeCount];
+      parent = new int[nodeCount];
+      reached = new int[nodeCount];
+      settled = new int[nodeCount];
+      blocked = java.util.Arrays.copyOf( blocked, nodeCount );
+      generation = 1;
+    }
+    if( generation == Integer.MAX_VALUE ) {
+      java.util.Arrays.fill( reached, 0 );
+      java.util.Arrays.fill( settled, 0 );
+      generation = 1;
+    }
+    generation++;
+    settledCount = 0;
+    heap.clear();
+  }
+
+  /*
+   * @param v - a vertex id
+   * @return the distance found to v in the current search, or Double.MAX_VALUE if v was not reached
+   */
+  public double distance( int v ) {
+    return reached[v] == generation ? dist[v] : Double.MAX_VALUE;
+  }
+
+  /*
+   * @param v - a vertex id
+   * @return the vertex before v on its shortest path, v itself for the source, or -1 if v was not reached
+   */
+  public int parent( int v ) {
+    return reached[v] == generation ? parent[v] : -1;
+  }
+
+  /*
+   * @param v - a vertex id
+   * @return true if the distance of v is final in the current search
+   */
+  public boolean isSettled( int v ) {
+    return settled[v] == generation;
+  }
+
+  /*
+   * @return the number of vertices settled by the current search
+   */
+  public int getSettledCount() {
+    return settledCount;
+  }
+
+  /*
+   * Gets the context used for the backward half of a bidirectional search,
+   * creating it the first time it is needed.
+   * @return the backward search state that belongs to this context
+   */
+  SearchContext backward() {
+    if( backward == null )
+      backward = new SearchContext( dist.length );
+    return backward;
+  }
+
+  /*
+   * Adds the vertices settled by another search (the backward half of a
+   * bidirectional search) to the settled count of this one.
+   * @param count - number of vertices to add
+   */
+  void addSettledCount( int count ) {
+    settledCount += count;
+  }
+
+  /*
+   * Unblocks every vertex. Blocked vertices are not touched by reset, so a
+   * set of blocked vertices can be shared by several searches in a row.
+   */
+  void clearBlocks() {
+    if( blockGeneration == Integer.MAX_VALUE ) {
+      java.util.Arrays.fill( blocked, 0 );
+      blockGeneration = 0;
+    }
+    blockGeneration++;
+  }
+
+  /*
+   * Keeps searches that check isBlocked from entering a vertex until clearBlocks.
+   * @param v - the vertex
+   */
+  void block( int v ) {
+    blocked[v] = blockGeneration;
+  }
+
+  /*
+   * @param v - a vertex id
+   * @return true if v was blocked since the last clearBlocks
+   */
+  boolean isBlocked( int v ) {
+    return blocked[v] == blockGeneration;
+  }
+
+  /*
+   * Records a shorter distance to a vertex.
+   * @param v - the vertex
+   * @param d - its new distance
+   * @param p - the vertex it is reached from
+   */
+  void update( int v, double d, int p ) {
+    relaxedTotal++;
+    dist[v] = d;
+    parent[v] = p;
+    reached[v] = generation;
+  }
+
+  /*
+   * Marks a vertex as settled.
+   * @param v - the vertex
+   * @throws CancellationException if the searching thread was interrupted
+   */
+  void settle( int v ) {
+    settled[v] = generation;
+    settledCount++;
+    settledTotal++;
+    if( (settledCount & CANCEL_CHECK_MASK) == 0 && Thread.currentThread().isInterrupted() )
+      throw new java.util.concurrent.CancellationException( "Search interrupted" );
+  }
+
+  /*
+   * Starts counting the work of a query from zero. Unlike getSettledCount, the
+   * counters below add up over every search run since, including the backward
+   * half of bidirectional searches, so they cover queries made of many searches.
+   */
+  public void resetCounters() {
+    settledTotal = relaxedTotal = 0;
+    heap.resetCounts();
+    if( backward != null )
+      backward.resetCounters();
+  }
+
+  /* @return the number of vertices settled since resetCounters */
+  public long getSettledTotal() {
+    return settledTotal + (backward == null ? 0 : backward.getSettledTotal());
+  }
+
+  /* @return the number of times a shorter distance to a vertex was found since resetCounters */
+  public long getRelaxedTotal() {
+    return relaxedTotal + (backward == null ? 0 : backward.getRelaxedTotal());
+  }
+
+  /* @return the number of priority queue inserts since resetCounters */
+  public long getHeapInserts() {
+    return heap.getInserts() + (backward == null ? 0 : backward.getHeapInserts());
+  }
+
+  /* @return the number of priority queue removes since resetCounters */
+  public long getHeapRemoves() {
+    return heap.getRemoves() + (backward == null ? 0 : backward.getHeapRemoves());
+  }
+}
@@ -0,0 +1,274 @@
+/*****************************************************************
+  * ShortestPathTree.java
+  *
+  * The shortest path from one source node to every other node, kept as
+  * the parent vertex and distance of each vertex from one full search.
+  *
+  * The tree takes two arrays however long the paths are. Paths are only
+  * built when asked for: as a lazy walk from a node back to the source,
+  * as an array of vertex ids, or as a list of nodes. Child lists for
+  * subtree queries are built the first time one is asked for.
+  *
+  * A tree does not change once made, so any number of threads may read it.
+  *
+  * Created by WendyGraph.shortestPathTree()
+  ****************************************************************/
+import java.util.*;
+
+public class ShortestPathTree {
+
+  private final ArrayList<Node> vertices; //the graph's vertices, indexed by id
+  private final int source; //id of the root
+  private final int[] parents; //parent of each vertex, the root's own id for the root, -1 if not reached
+  private final double[] dist; //distance of each vertex, Double.MAX_VALUE if not reached
+  private final int reachedCount; //number of vertices reached, including the root
+
+  //children of each vertex in CSR form, built on request
+  private volatile int[] childStart;
+  private int[] children;
+
+  /*
+   * @param vertices - the vertices of the graph, indexed by id
+   * @param source - id of the root
+   * @param parents - parent of every vertex; the tree keeps this array
+   * @param dist - distance to every vertex; the tree keeps this array
+   */
+  ShortestPathTree( ArrayList<Node> vertices, int source, int[] parents, double[] dist ) {
+    this.vertices = vertices;
+    this.source = source;
+    this.parents = parents;
+    this.dist = dist;
+    int count = 0;
+    for( int p : parents ) {
+      if( p != -1 ) count++;
+    }
+    this.reachedCount = count;
+  }
+
+  /*
+   * Copies the tree out of a finished search that settled every reachable vertex.
+   *
+   * @param vertices - the vertices of the graph, indexed by id
+   * @param ctx - the search state
+   * @param source - id of the vertex the search started from
+   * @param nodeCount - number of vertices in the searched graph
+   */
+  static ShortestPathTree of( ArrayList<Node> vertices, SearchContext ctx, int source, int nodeCount ) {
+    int[] parents = new int[nodeCount];
+    double[] dist = new double[nodeCount];
+    for( int v = 0; v < nodeCount; v++ ) {
+      parents[v] = ctx.parent( v );
+      dist[v] = ctx.distance( v );
+    }
+    return new ShortestPathTree( vertices, source, parents, dist );
+  }
+
+  /* @return the node the tree is rooted at */
+  public Node getSource() {
+    return vertices.get( source );
+  }
+
+  /* @return the number of nodes with a path from the source, including the source */
+  public int size() {
+    return reachedCount;
+  }
+
+  /*
+   * @param n - a node of the graph
+   * @return true if there is a path from the source to n
+   */
+  public boolean isReachable( Node n ) {
+    return parents[n.getId()] != -1;
+  }
+
+  /*
+   * @param n - a node of the graph
+   * @return the length of the shortest path from the source to n in meters,
+   *         Double.MAX_VALUE if there is none
+   */
+  public double getDistance( Node n ) {
+    return dist[n.getId()];
+  }
+
+  /*
+   * @param n - a node of the graph
+   * @return the node before n on its shortest path, or null for the source and unreached nodes
+   */
+  public Node getParent( Node n ) {
+    int p = parents[n.getId()];
+    return p == -1 || p == n.getId() ? null : vertices.get( p );
+  }
+
+  /*
+   * Walks a path backwards without building it.
+   *
+   * @param end - a node of the graph
+   * @return the nodes from end back to the source, end first; only end if it was not reached
+   */
+  public Iterable<Node> towardsSource( final Node end ) {
+    return new Iterable<Node>() {
+      public Iterator<Node> iterator() {
+        return new Iterator<Node>() {
+          private int v = end.getId();
+
+          public boolean hasNext() {
+            return v != -1;
+          }
+
+          public Node next() {
+            if( v == -1 )
+              throw new NoSuchElementException();
+            Node n = vertices.get( v );
+            int p = parents[v];
+            v = p == v ? -1 : p;
+            return n;
+          }
+        };
+      }
+    };
+  }
+
+  /*
+   * @param end - id of a vertex
+   * @return the ids of the vertices along the shortest path from the source to end;
+   *         only end if it was not reached
+   */
+  public int[] getPathIds( int end ) {
+    int length = 1;
+    for( int v = end; parents[v] != -1 && parents[v] != v; v = parents[v] )
+      length++;
+    int[] ids = new int[length];
+    int v = end;
+    for( int i = length - 1; i >= 0; i-- ) {
+      ids[i] = v;
+      v = parents[v];
+    }
+    return ids;
+  }
+
+  /*
+   * @param end - a node of the graph
+   * @return the nodes along the shortest path from the source to end; only end if it was not reached
+   */
+  public ArrayList<Node> getPath( Node end ) {
+    return getPath( end.getId() );
+  }
+
+  /*
+   * @param end - id of a vertex
+   * @return the nodes along the shortest path from the source to end; only end if it was not reached
+   */
+  ArrayList<Node> getPath( int end ) {
+    int[] ids = getPathIds( end );
+    ArrayList<Node> path = new ArrayList<Node>( ids.length );
+    for( int id : ids )
+      path.add( vertices.get( id ) );
+    return path;
+  }
+
+  /*
+   * @return every building with a path from the source and its distance, closest first
+   */
+  public LinkedHashMap<Node, Double> getBuildingDistances() {
+    ArrayList<Node> buildings = new ArrayList<Node>();
+    for( int v = 0; v < parents.length; v++ ) {
+      if( parents[v] != -1 && vertices.get( v ).getisBuilding() )
+        buildings.add( vertices.get( v ) );
+    }
+    Collections.sort( buildings, new Comparator<Node>() {
+      public int compare( Node a, Node b ) {
+        return Double.compare( dist[a.getId()], dist[b.getId()] );
+      }
+    } );
+    LinkedHashMap<Node, Double> distances = new LinkedHashMap<Node, Double>();
+    for( Node b : buildings )
+      distances.put( b, dist[b.getId()] );
+    return distances;
+  }
+
+  /*
+   * Lists the nodes whose shortest path goes through a node, for example every
+   * place that would have to be rerouted if that node were closed.
+   *
+   * @param root - a node of the graph
+   * @return root and every node below it in the tree, each before its children;
+   *         empty if root was not reached
+   */
+  public ArrayList<Node> getSubtree( Node root ) {
+    ArrayList<Node> subtree = new ArrayList<Node>();
+    if( parents[root.getId()] == -1 )
+      return subtree;
+    int[] start = children();
+    int[] stack = new int[16];
+    int top = 0;
+    stack[top++] = root.getId();
+    while( top > 0 ) {
+      int v = stack[--top];
+      subtree.add( vertices.get( v ) );
+      for( int c = start[v]; c < start[v + 1]; c++ ) {
+        if( top == stack.length )
+          stack = Arrays.copyOf( stack, top * 2 );
+        stack[top++] = children[c];
+      }
+    }
+    return subtree;
+  }
+
+  /*
+   * Builds the child lists on first use.
+   * @return the start of each vertex's children in children
+   */
+  private int[] children() {
+    int[] start = childStart;
+    if( start == null ) {
+      synchronized( this ) {
+        start = childStart;
+        if( start == null ) {
+          int n = parents.length;
+          start = new int[n + 1];
+          for( int v = 0; v < n; v++ ) {
+            if( parents[v] != -1 && parents[v] != v )
+              start[parents[v] + 1]++;
+          }
+          for( int v = 0; v < n; v++ )
+            start[v + 1] += start[v];
+          int[] next = Arrays.copyOf( start, n );
+          int[] list = new int[start[n]];
+          for( int v = 0; v < n; v++ ) {
+            if( parents[v] != -1 && parents[v] != v )
+              list[next[parents[v]]++] = v;
+          }
+          children = list;
+          childStart = start;
+        }
+      }
+    }
+    return start;
+  }
+
+  /*
+   * @param v - id of a vertex
+   * @return the parent id of v, v for the source, -1 if not reached
+   */
+  int parent( int v ) {
+    return parents[v];
+  }
+
+  /*
+   * @param v - id of a vertex
+   * @return the distance of v, Double.MAX_VALUE if not reached
+   */
+  double distance( int v ) {
+    return dist[v];
+  }
+
+  /* @return the number of vertices the tree has room for */
+  int nodeCount() {
+    return parents.length;
+  }
+
+  public String toString() {
+    return "ShortestPathTree[source=" + getSource().getName() + ", reached=" + reachedCount + "/"
+      + parents.length + "]";
+  }
+}
@@ -0,0 +1,318 @@
+/*****************************************************************
+  * SpatialIndex.java
+  *
+  * A uniform grid over the vertex coordinates of a WendyGraph, for
+  * snapping GPS fixes and map clicks to the graph.
+  *
+  * Coordinates are projected once to meters on a plane through the middle
+  * of the map (equirectangular), which is accurate to well under a meter
+  * over a town-sized map. Vertices are bucketed into square cells of about
+  * two vertices each, stored in CSR form, so a lookup only scans the
+  * few cells around the query point and building the index is a single
+  * counting sort.
+  *
+  * Built by WendyGraph.spatialIndex()
+  ****************************************************************/
+import java.util.*;
+
+public class SpatialIndex {
+
+  private static final double METERS_PER_DEGREE = 6317E3 * Math.PI / 180; //same Earth radius as Edge
+
+  private final CompactGraph graph;
+  private final double originLat, originLon; //coordinates of the plane's origin
+  private final double metersPerLon; //meters per degree of longitude at the middle latitude
+  private final double[] x, y; //projected position of each vertex in meters
+
+  private final double cellSize; //side of a grid cell in meters
+  private final int cellsX, cellsY; //grid dimensions
+  private final int[] cellStart; //first entry of each cell in cellNodes
+  private final int[] cellNodes; //vertex ids, grouped by cell
+  private final double[] cellNodeX, cellNodeY; //x and y of each entry of cellNodes, for locality
+  private final double maxHalfEdge; //half the longest arc, for edge snapping
+
+  /*
+   * Builds the index.
+   * @param g - the compressed adjacency arrays of a WendyGraph
+   */
+  public SpatialIndex( CompactGraph g ) {
+    graph = g;
+    int n = g.nodeCount;
+
+    double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+    double minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+    for( int v = 0; v < n; v++ ) {
+      minLat = Math.min( minLat, g.lat[v] );
+      maxLat = Math.max( maxLat, g.lat[v] );
+      minLon = Math.min( minLon, g.lon[v] );
+      maxLon = Math.max( maxLon, g.lon[v] );
+    }
+    if( n == 0 )
+      minLat = maxLat = minLon = maxLon = 0;
+    originLat = minLat;
+    originLon = minLon;
+    metersPerLon = METERS_PER_DEGREE * Math.cos( Math.toRadians( (minLat + maxLat) / 2 ) );
+
+    x = new double[n];
+    y = new double[n];
+    for( int v = 0; v < n; v++ ) {
+      x[v] = toX( g.lon[v] );
+      y[v] = toY( g.lat[v] );
+    }
+
+    //about two vertices per cell
+    double width = toX( maxLon ), height = toY( maxLat );
+    double size = Math.sqrt( Math.max( width * height, 1 ) / Math.max( n / 2.0, 1 ) );
+    size = Math.max( size, Math.max( width, height ) / 4096 ); //keep the grid to a sane size
+    cellSize = Math.max( size, 1E-3 );
+    cellsX = (int)(width / cellSize) + 1;
+    cellsY = (int)(height / cellSize) + 1;
+
+    //counting sort of the vertices by cell
+    cellStart = new int[cellsX * cellsY + 1];
+    int[] cellOf = new int[n];
+    for( int v = 0; v < n; v++ ) {
+      cellOf[v] = cellY( y[v] ) * cellsX + cellX( x[v] );
+      cellStart[cellOf[v] + 1]++;
+    }
+    for( int c = 0; c < cellsX * cellsY; c++ )
+      cellStart[c + 1] += cellStart[c];
+    cellNodes = new int[n];
+    int[] fill = Arrays.copyOf( cellStart, cellsX * cellsY );
+    for( int v = 0; v < n; v++ )
+      cellNodes[fill[cellOf[v]]++] = v;
+    cellNodeX = new double[n];
+    cellNodeY = new double[n];
+    for( int e = 0; e < n; e++ ) {
+      cellNodeX[e] = x[cellNodes[e]];
+      cellNodeY[e] = y[cellNodes[e]];
+    }
+
+    double longest = 0;
+    for( int u = 0; u < n; u++ ) {
+      for( int a = g.offsets[u]; a < g.offsets[u + 1]; a++ )
+        longest = Math.max( longest, Math.hypot( x[g.targets[a]] - x[u], y[g.targets[a]] - y[u] ) );
+    }
+    maxHalfEdge = longest / 2;
+  }
+
+  private double toX( double lon ) {
+    return (lon - originLon) * metersPerLon;
+  }
+
+  private double toY( double lat ) {
+    return (lat - originLat) * METERS_PER_DEGREE;
+  }
+
+  //truncation instead of floor is fine, anything left of or below the grid is clamped to 0
+  private int cellX( double px ) {
+    return Math.max( 0, Math.min( cellsX - 1, (int)(px / cellSize) ) );
+  }
+
+  private int cellY( double py ) {
+    return Math.max( 0, Math.min( cellsY - 1, (int)(py / cellSize) ) );
+  }
+
+  /*
+   * @return the graph this index was built from
+   */
+  public CompactGraph getGraph() {
+    return graph;
+  }
+
+  /*
+   * Finds the vertex closest to a point.
+   * @param lat - latitude of the point
+   * @param lon - longitude of the point
+   * @return the id of the closest vertex, or -1 if the graph is empty
+   */
+  public int nearest( double lat, double lon ) {
+    int[] ids = new int[1];
+    return nearest( toX( lon ), toY( lat ), ids, new double[1] ) == 0 ? -1 : ids[0];
+  }
+
+  /*
+   * Finds the k vertices closest to a point.
+   * @param lat - latitude of the point
+   * @param lon - longitude of the point
+   * @param k - number of vertices to find
+   * @return the ids of up to k vertices, closest first
+   */
+  public int[] nearest( double lat, double lon, int k ) {
+    int[] ids = new int[k];
+    int found = nearest( toX( lon ), toY( lat ), ids, new double[k] );
+    return Arrays.copyOf( ids, found );
+  }
+
+  /*
+   * Scans the grid in rings of cells around the point, keeping the ids.length
+   * closest vertices in sorted order, and stops once no cell in the next ring
+   * can hold anything closer. Each cell of ring r lies past one side of the block
+   * of rings 0 to r - 1, so it is at least as far as the nearest of those sides
+   * (counting only sides where ring r is inside the grid).
+   *
+   * @return the number of vertices found
+   */
+  private int nearest( double px, double py, int[] ids, double[] dist2 ) {
+    int k = ids.length;
+    int found = 0;
+    if( k == 0 || x.length == 0 )
+      return 0;
+    int cx = cellX( px ), cy = cellY( py );
+
+    for( int r = 0; ; r++ ) {
+      if( r > 0 ) {
+        double reach = Double.MAX_VALUE;
+        if( cx - r >= 0 ) reach = Math.min( reach, px - (cx - r + 1) * cellSize );
+        if( cx + r < cellsX ) reach = Math.min( reach, (cx + r) * cellSize - px );
+        if( cy - r >= 0 ) reach = Math.min( reach, py - (cy - r + 1) * cellSize );
+        if( cy + r < cellsY ) reach = Math.min( reach, (cy + r) * cellSize - py );
+        if( reach == Double.MAX_VALUE ) //the whole grid has been scanned
+          break;
+        if( found == k && reach > 0 && reach * reach >= dist2[k - 1] )
+          break;
+      }
+
+      for( int j = cy - r; j <= cy + r; j++ ) {
+        if( j < 0 || j >= cellsY ) continue;
+        int step = (j == cy - r || j == cy + r) ? 1 : 2 * r;
+        for( int i = cx - r; i <= cx + r; i += step ) {
+          if( i < 0 || i >= cellsX ) continue;
+          int c = j * cellsX + i;
+          for( int e = cellStart[c]; e < cellStart[c + 1]; e++ ) {
+            double dx = cellNodeX[e] - px, dy = cellNodeY[e] - py;
+            double d2 = dx * dx + dy * dy;
+            if( found == k && d2 >= dist2[k - 1] ) continue;
+
+            //insertion into the sorted candidates
+            int pos = found < k ? found++ : k - 1;
+            while( pos > 0 && dist2[pos - 1] > d2 ) {
+              dist2[pos] = dist2[pos - 1];
+              ids[pos] = ids[pos - 1];
+              pos--;
+            }
+            dist2[pos] = d2;
+            ids[pos] = cellNodes[e];
+          }
+        }
+      }
+    }
+    return found;
+  }
+
+  /*
+   * Finds every vertex within a distance of a point.
+   * @param lat - latitude of the point
+   * @param lon - longitude of the point
+   * @param meters - the distance
+   * @return the ids of the vertices, in no particular order
+   */
+  public int[] withinRadius( double lat, double lon, double meters ) {
+    return withinMeters( toX( lon ), toY( lat ), meters );
+  }
+
+  private int[] withinMeters( double px, double py, double meters ) {
+    int[] result = new int[16];
+    int count = 0;
+    double r2 = meters * meters;
+    for( int j = cellY( py - meters ); j <= cellY( py + meters ); j++ ) {
+      for( int i = cellX( px - meters ); i <= cellX( px + meters ); i++ ) {
+        int c = j * cellsX + i;
+        for( int e = cellStart[c]; e < cellStart[c + 1]; e++ ) {
+          double dx = cellNodeX[e] - px, dy = cellNodeY[e] - py;
+          if( dx * dx + dy * dy <= r2 ) {
+            if( count == result.length )
+              result = Arrays.copyOf( result, count * 2 );
+            result[count++] = cellNodes[e];
+          }
+        }
+      }
+    }
+    return Arrays.copyOf( result, count );
+  }
+
+  /*
+   * Finds every vertex inside a latitude/longitude box.
+   * @return the ids of the vertices, in no particular order
+   */
+  public int[] withinBox( double minLat, double minLon, double maxLat, double maxLon ) {
+    int[] result = new int[16];
+    int count = 0;
+    for( int j = cellY( toY( minLat ) ); j <= cellY( toY( maxLat ) ); j++ ) {
+      for( int i = cellX( toX( minLon ) ); i <= cellX( toX( maxLon ) ); i++ ) {
+        int c = j * cellsX + i;
+        for( int e = cellStart[c]; e < cellStart[c + 1]; e++ ) {
+          int v = cellNodes[e];
+          if( graph.lat[v] >= minLat && graph.lat[v] <= maxLat
+               && graph.lon[v] >= minLon && graph.lon[v] <= maxLon ) {
+            if( count == result.length )
+              result = Arrays.copyOf( result, count * 2 );
+            result[count++] = v;
+          }
+        }
+      }
+    }
+    return Arrays.copyOf( result, count );
+  }
+
+  /*
+   * Finds the closest point on any edge to a point. A point on an edge at distance d
+   * has an end of that edge within d + (half the longest edge), so only edges with an
+   * end within that radius of the query point are checked, starting from the distance
+   * to the nearest vertex and widening only if none of those vertices has an edge.
+   *
+   * @param lat - latitude of the point
+   * @param lon - longitude of the point
+   * @return the closest point on an edge, or null if the graph has no edges
+   */
+  public Snap snapToEdge( double lat, double lon ) {
+    if( graph.arcCount() == 0 )
+      return null;
+    double px = toX( lon ), py = toY( lat );
+    int[] ids = new int[1];
+    double[] dist2 = new double[1];
+    nearest( px, py, ids, dist2 );
+
+    Snap best = new Snap();
+    best.distance = Double.MAX_VALUE;
+    double radius = Math.sqrt( dist2[0] ) + maxHalfEdge;
+    while( true ) {
+      for( int u : withinMeters( px, py, radius ) ) {
+        for( int a = graph.offsets[u]; a < graph.offsets[u + 1]; a++ ) {
+          int v = graph.targets[a];
+          double sx = x[v] - x[u], sy = y[v] - y[u];
+          double len2 = sx * sx + sy * sy;
+          double t = len2 == 0 ? 0 : ((px - x[u]) * sx + (py - y[u]) * sy) / len2;
+          t = Math.max( 0, Math.min( 1, t ) );
+          double qx = x[u] + t * sx, qy = y[u] + t * sy;
+          double d = Math.hypot( px - qx, py - qy );
+          if( d < best.distance ) {
+            best.edge = graph.edges[a];
+            best.from = u;
+            best.to = v;
+            best.fraction = t;
+            best.distance = d;
+            best.lat = originLat + qy / METERS_PER_DEGREE;
+            best.lon = originLon + qx / metersPerLon;
+          }
+        }
+      }
+      if( best.distance + maxHalfEdge <= radius )
+        return best;
+      radius = Math.max( 2 * radius, best.distance + maxHalfEdge ); //only isolated vertices were in range
+    }
+  }
+
+  /*
+   * The point on the graph closest to a query point.
+   */
+  public static class Snap {
+    public Edge edge; //the edge the point is on
+    public int from; //vertex id at the start of the edge
+    public int to; //vertex id at the end of the edge
+    public double fraction; //how far along the edge from 'from' to 'to', 0 to 1
+    public double lat; //latitude of the point
+    public double lon; //longitude of the point
+    public double distance; //distance from the query point in meters
+  }
+}
@@ -0,0 +1,267 @@
+/*****************************************************************
+  * StreamingMapLoader.java
+  *
+  * Imports very large maps in the same text format the WendyGraph
+  * constructor reads ("i NAME lat lon" rows, then "r NAME NAME" rows).
+  *
+  * The file is read once, line by line, through a buffered NIO reader.
+  * Nodes and edges go straight into growable primitive arrays, names are
+  * resolved through a hash index, and the bounding box is kept up to date
+  * as rows arrive, so nothing but the final graph data is ever held in
+  * memory. Malformed rows, edges naming unknown nodes and repeated node
+  * names are skipped and counted instead of stopping the import.
+  *
+  * Usage: java StreamingMapLoader mapFile
+  ****************************************************************/
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+public class StreamingMapLoader {
+
+  /*
+   * Receives progress reports while a map is being read.
+   */
+  public interface ProgressListener {
+    /*
+     * @param lines - lines read so far
+     * @param nodes - nodes added so far
+     * @param edges - edges added so far
+     * @param rejected - rows skipped so far
+     */
+    void progress( long lines, int nodes, int edges, long rejected );
+  }
+
+  private static final int MAX_REPORTED_REJECTS = 20;
+
+  private final ProgressListener listener; //may be null
+  private final long progressInterval; //lines between progress reports
+
+  //results of the last load
+  private long lines, rejected;
+  private int nodeCount, edgeCount;
+  private double minLat, maxLat, minLon, maxLon;
+  private ArrayList<String> rejects = new ArrayList<String>();
+
+  //growable node and edge arrays
+  private String[] names;
+  private double[] lat, lon;
+  private boolean[] building;
+  private int[] edgeFrom, edgeTo;
+  private double[] edgeLength;
+  private HashMap<String, Integer> nameIndex;
+
+  /*
+   * Creates a loader.
+   * @param listener - receives progress reports, or null
+   * @param progressInterval - number of lines between progress reports
+   */
+  public StreamingMapLoader( ProgressListener listener, long progressInterval ) {
+    this.listener = listener;
+    this.progressInterval = Math.max( 1, progressInterval );
+  }
+
+  /*
+   * Reads a map file.
+   * @param fileName - name of the text map file
+   * @return the graph
+   */
+  public WendyGraph load( String fileName ) throws IOException {
+    lines = rejected = 0;
+    nodeCount = edgeCount = 0;
+    minLat = minLon = Double.MAX_VALUE;
+    maxLat = maxLon = -Double.MAX_VALUE;
+    rejects.clear();
+    names = new String[1024];
+    lat = new double[1024];
+    lon = new double[1024];
+    building = new boolean[1024];
+    edgeFrom = new int[1024];
+    edgeTo = new int[1024];
+    edgeLength = new double[1024];
+    nameIndex = new HashMap<String, Integer>();
+
+    BufferedReader in = Files.newBufferedReader( Paths.get( fileName ), StandardCharsets.UTF_8 );
+    try {
+      String[] tokens = new String[4];
+      String line;
+      while( (line = in.readLine()) != null ) {
+        lines++;
+        int count = split( line, tokens );
+        if( count > 0 )
+          readRow( tokens, count );
+        if( listener != null && lines % progressInterval == 0 )
+          listener.progress( lines, nodeCount, edgeCount, rejected );
+      }
+    } finally {
+      in.close();
+    }
+    if( listener != null )
+      listener.progress( lines, nodeCount, edgeCount, rejected );
+
+    WendyGraph w = new WendyGraph( names, lat, lon, building, nodeCount,
+                                   edgeFrom, edgeTo, edgeLength, edgeCount, null, null );
+
+    //let the arrays go, the graph has its own copies
+    names = null;
+    lat = lon = edgeLength = null;
+    building = null;
+    edgeFrom = edgeTo = null;
+    nameIndex = null;
+    return w;
+  }
+
+  /*
+   * Adds the node or edge described by one row, or counts it as rejected.
+   */
+  private void readRow( String[] tokens, int count ) {
+    if( tokens[0].equals( "r" ) ) {
+      if( count != 3 ) {
+        reject( "expected 'r NAME NAME'" );
+        return;
+      }
+      Integer from = nameIndex.get( tokens[1] );
+      Integer to = nameIndex.get( tokens[2] );
+      if( from == null || to == null ) {
+        reject( "unknown node " + (from == null ? tokens[1] : tokens[2]) );
+        return;
+      }
+      addEdge( from, to );
+    } else {
+      if( count != 4 ) {
+        reject( "expected 'i NAME lat lon'" );
+        return;
+      }
+      double la, lo;
+      try {
+        la = Double.parseDouble( tokens[2] );
+        lo = Double.parseDouble( tokens[3] );
+      } catch( NumberFormatException e ) {
+        reject( "bad coordinate" );
+        return;
+      }
+      if( nameIndex.containsKey( tokens[1] ) ) {
+        reject( "duplicate node " + tokens[1] );
+        return;
+      }
+      addNode( tokens[1], la, lo );
+    }
+  }
+
+  private void addNode( String name, double la, double lo ) {
+    if( nodeCount == names.length ) {
+      int capacity = nodeCount * 2;
+      names = Arrays.copyOf( names, capacity );
+      lat = Arrays.copyOf( lat, capacity );
+      lon = Arrays.copyOf( lon, capacity );
+      building = Arrays.copyOf( building, capacity );
+    }
+    names[nodeCount] = name;
+    lat[nodeCount] = la;
+    lon[nodeCount] = lo;
+    building[nodeCount] = name.charAt( 0 ) != 'i';
+    nameIndex.put( name, nodeCount );
+    nodeCount++;
+
+    minLat = Math.min( minLat, la );
+    maxLat = Math.max( maxLat, la );
+    minLon = Math.min( minLon, lo );
+    maxLon = Math.max( maxLon, lo );
+  }
+
+  private void addEdge( int from, int to ) {
+    if( edgeCount == edgeFrom.length ) {
+      int capacity = edgeCount * 2;
+      edgeFrom = Arrays.copyOf( edgeFrom, capacity );
+      edgeTo = Arrays.copyOf( edgeTo, capacity );
+      edgeLength = Arrays.copyOf( edgeLength, capacity );
+    }
+    edgeFrom[edgeCount] = from;
+    edgeTo[edgeCount] = to;
+    edgeLength[edgeCount] = Edge.getGreatCircleDistance( lat[from], lon[from], lat[to], lon[to] );
+    edgeCount++;
+  }
+
+  private void reject( String reason ) {
+    rejected++;
+    if( rejects.size() < MAX_REPORTED_REJECTS )
+      rejects.add( "line " + lines + ": " + reason );
+  }
+
+  /*
+   * Splits a line on spaces and tabs.
+   * @return the number of tokens, of which at most tokens.length are stored
+   *         (a count above tokens.length means the row has too many columns)
+   */
+  private static int split( String line, String[] tokens ) {
+    int count = 0;
+    int i = 0;
+    int n = line.length();
+    while( i < n ) {
+      while( i < n && Character.isWhitespace( line.charAt( i ) ) )
+        i++;
+      if( i == n )
+        break;
+      int start = i;
+      while( i < n && !Character.isWhitespace( line.charAt( i ) ) )
+        i++;
+      if( count < tokens.length )
+        tokens[count] = line.substring( start, i );
+      count++;
+    }
+    return count;
+  }
+
+  /* @return number of lines read by the last load */
+  public long getLineCount() {
+    return lines;
+  }
+
+  /* @return number of nodes read by the last load */
+  public int getNodeCount() {
+    return nodeCount;
+  }
+
+  /* @return number of edges read by the last load */
+  public int getEdgeCount() {
+    return edgeCount;
+  }
+
+  /* @return number of rows skipped by the last load */
+  public long getRejectedCount() {
+    return rejected;
+  }
+
+  /* @return line number and reason of the first skipped rows */
+  public List<String> getRejects() {
+    return Collections.unmodifiableList( rejects );
+  }
+
+  /* @return {minLat, maxLat, minLon, maxLon} of the nodes read by the last load */
+  public double[] getBoundingBox() {
+    return new double[] { minLat, maxLat, minLon, maxLon };
+  }
+
+  /* Imports a map and prints progress and a summary. */
+  public static void main( String[] args ) throws IOException {
+    if( args.length != 1 ) {
+      System.err.println( "Usage: java StreamingMapLoader mapFile" );
+      return;
+    }
+
+    StreamingMapLoader loader = new StreamingMapLoader( new ProgressListener() {
+      public void progress( long lines, int nodes, int edges, long rejected ) {
+        System.out.println( lines + " lines: " + nodes + " nodes, " + edges + " edges, "
+                             + rejected + " rejected" );
+      }
+    }, 1000000 );
+
+    long start = System.nanoTime();
+    WendyGraph w = loader.load( args[0] );
+    System.out.printf( "Loaded %d vertices in %.1f ms, bounding box %s%n", w.vertices.size(),
+                      (System.nanoTime() - start) / 1E6, Arrays.toString( loader.getBoundingBox() ) );
+    for( String reject : loader.getRejects() )
+      System.out.println( "  rejected " + reject );
+  }
+}
@@ -0,0 +1,379 @@
+/*****************************************************************
+  * TourOptimizer.java
+  *
+  * Plans the order in which to visit a set of stops on a WendyGraph
+  * (the traveling salesman problem the project is named after).
+  *
+  * The distances between all stops come from one parallel
+  * WendyGraph.distanceMatrix call. Up to EXACT_STOPS stops the best order
+  * is found exactly with the Held-Karp dynamic program. Beyond that a
+  * nearest-neighbour tour is improved with 2-opt and Or-opt moves, and
+  * whatever is left of the time budget goes to iterated local search:
+  * swap two stretches of the tour, improve again, keep it if it is shorter.
+  * Every better order found is passed to a listener as it is found.
+  *
+  * Usage: java TourOptimizer mapFile budgetMillis stop stop ...
+  ****************************************************************/
+import java.util.*;
+
+public class TourOptimizer {
+
+  /*
+   * Receives each better order of stops as it is found.
+   */
+  public interface ImprovementListener {
+    /*
+     * @param order - the stops in visiting order, from the start to the end of the tour
+     * @param length - the length of the tour in meters
+     */
+    void improved( ArrayList<Node> order, double length );
+  }
+
+  //largest number of stops between the start and the end that are ordered exactly
+  public static final int EXACT_STOPS = 15;
+
+  private static final double EPSILON = 1E-9; //smallest improvement that counts
+
+  private final WendyGraph graph;
+  private final Random random = new Random( 1 ); //for the local search kicks
+
+  //state of the current optimize call
+  private String[] points; //names of the start, the stops, and the end if it differs from the start
+  private double[] dist; //distance between each two points, row by row
+  private int count; //number of points
+  private int last; //index of the end point, 0 for a round trip
+  private long deadline; //System.nanoTime() to stop improving at
+  private ImprovementListener listener;
+  private int[] best; //best order found so far, a sequence of point indexes from 0 to last
+  private double bestLength;
+
+  /*
+   * Creates an optimizer for a graph.
+   * @param graph - the graph to route on
+   */
+  public TourOptimizer( WendyGraph graph ) {
+    this.graph = graph;
+  }
+
+  /*
+   * Finds a short tour through every stop.
+   *
+   * @param stopNames - the names of the nodes to visit, in any order
+   * @param startName - the name of the node to start from, or null to start at the first stop
+   * @param endName - the name of the node to end at, or null to return to the start
+   * @param budgetMillis - how long to look for better orders when there are too many
+   *                       stops to order exactly
+   * @param listener - receives every better order as it is found, or null
+   *
+   * @return the tour, every node along it from start to end, or null if a name
+   *         is not a node or some stop cannot be reached
+   */
+  public Route optimize( String[] stopNames, String startName, String endName, long budgetMillis,
+                         ImprovementListener listener ) {
+    deadline = System.nanoTime() + budgetMillis * 1000000L;
+    this.listener = listener;
+    if( stopNames.length == 0 && startName == null )
+      return null;
+
+    //start, distinct stops, end
+    String first = startName != null ? startName : stopNames[0];
+    LinkedHashSet<String> names = new LinkedHashSet<String>();
+    names.add( first );
+    names.addAll( Arrays.asList( stopNames ) );
+    boolean roundTrip = endName == null || endName.equals( first );
+    if( !roundTrip ) {
+      names.remove( endName );
+      names.add( endName );
+    }
+    for( String name : names ) {
+      if( graph.getNode( name ) == null ) {
+        System.err.println( "Enter a valid stop name: " + name );
+        return null;
+      }
+    }
+    points = names.toArray( new String[names.size()] );
+    count = points.length;
+    last = roundTrip ? 0 : count - 1;
+
+    dist = graph.distanceMatrix( points, points );
+    for( int j = 0; j < count; j++ ) {
+      if( dist[j] == Double.MAX_VALUE ) { //edges are undirected, so every stop must be reachable from the start
+        System.err.println( points[j] + " cannot be reached from " + points[0] );
+        return null;
+      }
+    }
+
+    int middle = last == 0 ? count - 1 : count - 2; //stops between the start and the end
+    best = null;
+    if( middle <= EXACT_STOPS ) {
+      offer( heldKarp( middle ) );
+    } else {
+      int[] tour = nearestNeighbour();
+      offer( tour );
+      improve( tour );
+      offer( tour );
+      iteratedLocalSearch();
+    }
+    return stitch( best );
+  }
+
+  /*
+   * Finds the best order exactly: cost[mask][j] is the length of the shortest path
+   * from the start through the stops in mask, ending at stop j.
+   *
+   * @param middle - number of stops between the start and the end (points 1 to middle)
+   * @return the best sequence of point indexes
+   */
+  private int[] heldKarp( int middle ) {
+    int[] tour = new int[middle + 2];
+    tour[middle + 1] = last;
+    if( middle == 0 )
+      return tour;
+
+    int full = (1 << middle) - 1;
+    double[] cost = new double[(full + 1) * middle];
+    int[] previous = new int[(full + 1) * middle];
+    Arrays.fill( cost, Double.MAX_VALUE );
+    for( int j = 0; j < middle; j++ ) {
+      cost[(1 << j) * middle + j] = d( 0, j + 1 );
+      previous[(1 << j) * middle + j] = -1;
+    }
+
+    for( int mask = 1; mask <= full; mask++ ) {
+      for( int j = 0; j < middle; j++ ) {
+        double c = cost[mask * middle + j];
+        if( c == Double.MAX_VALUE ) continue;
+        for( int k = 0; k < middle; k++ ) {
+          if( (mask & (1 << k)) != 0 ) continue;
+          int next = (mask | (1 << k)) * middle + k;
+          double alt = c + d( j + 1, k + 1 );
+          if( alt < cost[next] ) {
+            cost[next] = alt;
+            previous[next] = j;
+          }
+        }
+      }
+    }
+
+    int end = 0;
+    for( int j = 1; j < middle; j++ ) {
+      if( cost[full * middle + j] + d( j + 1, last ) < cost[full * middle + end] + d( end + 1, last ) )
+        end = j;
+    }
+    int mask = full;
+    for( int i = middle; i >= 1; i-- ) {
+      tour[i] = end + 1;
+      int p = previous[mask * middle + end];
+      mask &= ~(1 << end);
+      end = p;
+    }
+    return tour;
+  }
+
+  /*
+   * @return a tour that always goes on to the closest stop not yet visited
+   */
+  private int[] nearestNeighbour() {
+    int middle = last == 0 ? count - 1 : count - 2;
+    int[] tour = new int[middle + 2];
+    boolean[] visited = new boolean[count];
+    visited[0] = visited[last] = true;
+    for( int i = 1; i <= middle; i++ ) {
+      int closest = -1;
+      for( int j = 1; j < count; j++ ) {
+        if( !visited[j] && (closest == -1 || d( tour[i - 1], j ) < d( tour[i - 1], closest )) )
+          closest = j;
+      }
+      tour[i] = closest;
+      visited[closest] = true;
+    }
+    tour[middle + 1] = last;
+    return tour;
+  }
+
+  /*
+   * Applies improving 2-opt and Or-opt moves until there are none left or time is up.
+   * @param tour - the sequence to improve, changed in place
+   */
+  private void improve( int[] tour ) {
+    boolean improved = true;
+    while( improved && System.nanoTime() < deadline ) {
+      improved = twoOpt( tour ) | orOpt( tour );
+    }
+  }
+
+  /*
+   * Reverses every stretch of the tour whose reversal makes the tour shorter.
+   * @return true if the tour changed
+   */
+  private boolean twoOpt( int[] tour ) {
+    boolean improved = false;
+    int end = tour.length - 2; //last movable position
+    for( int i = 1; i < end; i++ ) {
+      for( int j = i + 1; j <= end; j++ ) {
+        double delta = d( tour[i - 1], tour[j] ) + d( tour[i], tour[j + 1] )
+                     - d( tour[i - 1], tour[i] ) - d( tour[j], tour[j + 1] );
+        if( delta < -EPSILON ) {
+          for( int a = i, b = j; a < b; a++, b-- ) {
+            int t = tour[a];
+            tour[a] = tour[b];
+            tour[b] = t;
+          }
+          improved = true;
+        }
+      }
+      if( System.nanoTime() >= deadline ) break;
+    }
+    return improved;
+  }
+
+  /*
+   * Moves runs of one to three stops, forwards or reversed, to wherever
+   * else in the tour they make it shorter.
+   * @return true if the tour changed
+   */
+  private boolean orOpt( int[] tour ) {
+    boolean improved = false;
+    int end = tour.length - 2;
+    for( int run = 1; run <= 3; run++ ) {
+      for( int i = 1; i + run - 1 <= end; i++ ) {
+        int j = i + run - 1; //run is tour[i..j]
+        double removed = d( tour[i - 1], tour[i] ) + d( tour[j], tour[j + 1] ) - d( tour[i - 1], tour[j + 1] );
+
+        for( int p = 0; p <= end; p++ ) { //insert between tour[p] and tour[p + 1]
+          if( p >= i - 1 && p <= j ) continue;
+          double gap = d( tour[p], tour[p + 1] );
+          double forward = d( tour[p], tour[i] ) + d( tour[j], tour[p + 1] ) - gap;
+          double reversed = d( tour[p], tour[j] ) + d( tour[i], tour[p + 1] ) - gap;
+          if( Math.min( forward, reversed ) - removed < -EPSILON ) {
+            moveRun( tour, i, j, p, reversed < forward );
+            improved = true;
+            break;
+          }
+        }
+      }
+      if( System.nanoTime() >= deadline ) break;
+    }
+    return improved;
+  }
+
+  /*
+   * Moves tour[i..j] to between tour[p] and tour[p + 1].
+   */
+  private static void moveRun( int[] tour, int i, int j, int p, boolean reverse ) {
+    int[] run = Arrays.copyOfRange( tour, i, j + 1 );
+    if( reverse ) {
+      for( int a = 0, b = run.length - 1; a < b; a++, b-- ) {
+        int t = run[a];
+        run[a] = run[b];
+        run[b] = t;
+      }
+    }
+    int[] rest = new int[tour.length - run.length];
+    int r = 0, insertAt = -1;
+    for( int k = 0; k < tour.length; k++ ) {
+      if( k >= i && k <= j ) continue;
+      rest[r++] = tour[k];
+      if( k == p )
+        insertAt = r;
+    }
+    System.arraycopy( rest, 0, tour, 0, insertAt );
+    System.arraycopy( run, 0, tour, insertAt, run.length );
+    System.arraycopy( rest, insertAt, tour, insertAt + run.length, rest.length - insertAt );
+  }
+
+  /*
+   * Until time is up: swaps two neighbouring stretches of the best tour (a kick that
+   * 2-opt and Or-opt cannot undo in one move), improves the result, and keeps it if
+   * it is shorter than the best.
+   */
+  private void iteratedLocalSearch() {
+    int end = best.length - 2;
+    while( System.nanoTime() < deadline ) {
+      int a = 1 + random.nextInt( end );
+      int b = 1 + random.nextInt( end );
+      int c = 1 + random.nextInt( end );
+      int lo = Math.min( a, Math.min( b, c ) ), hi = Math.max( a, Math.max( b, c ) );
+      int mid = a + b + c - lo - hi;
+      if( lo == mid || mid == hi ) continue;
+
+      //best[lo..mid-1] and best[mid..hi] change places
+      int[] tour = best.clone();
+      int k = lo;
+      for( int i = mid; i <= hi; i++ )
+        tour[k++] = best[i];
+      for( int i = lo; i < mid; i++ )
+        tour[k++] = best[i];
+
+      improve( tour );
+      offer( tour );
+    }
+  }
+
+  /*
+   * Keeps a tour and tells the listener if it is shorter than the best so far.
+   */
+  private void offer( int[] tour ) {
+    double length = length( tour );
+    if( best != null && length >= bestLength - EPSILON )
+      return;
+    best = tour.clone();
+    bestLength = length;
+    if( listener != null ) {
+      ArrayList<Node> order = new ArrayList<Node>( tour.length );
+      for( int p : tour )
+        order.add( graph.getNode( points[p] ) );
+      listener.improved( order, length );
+    }
+  }
+
+  /*
+   * @return the length of a tour in meters
+   */
+  private double length( int[] tour ) {
+    double length = 0;
+    for( int i = 1; i < tour.length; i++ )
+      length += d( tour[i - 1], tour[i] );
+    return length;
+  }
+
+  /*
+   * Joins the shortest paths between the consecutive stops of a tour.
+   * @return every node along the tour
+   */
+  private Route stitch( int[] tour ) {
+    ArrayList<Node> nodes = new ArrayList<Node>();
+    nodes.add( graph.getNode( points[tour[0]] ) );
+    for( int i = 1; i < tour.length; i++ ) {
+      if( tour[i] == tour[i - 1] ) continue;
+      ArrayList<Node> leg = graph.route( points[tour[i - 1]], points[tour[i]], RouteMode.BIDIRECTIONAL );
+      nodes.addAll( leg.subList( 1, leg.size() ) );
+    }
+    return new Route( nodes, length( tour ) );
+  }
+
+  /*
+   * @return the distance between two points
+   */
+  private double d( int i, int j ) {
+    return dist[i * count + j];
+  }
+
+  /* Plans a round trip through the stops given on the command line, starting at the first. */
+  public static void main( String[] args ) {
+    if( args.length < 3 ) {
+      System.err.println( "Usage: java TourOptimizer mapFile budgetMillis stop stop ..." );
+      return;
+    }
+    WendyGraph w = new WendyGraph( args[0] );
+    String[] stops = Arrays.copyOfRange( args, 2, args.length );
+    final long start = System.nanoTime();
+    Route tour = new TourOptimizer( w ).optimize( stops, null, null, Long.parseLong( args[1] ),
+      new ImprovementListener() {
+        public void improved( ArrayList<Node> order, double length ) {
+          System.out.printf( "%8.1f ms: %.1f m%n", (System.nanoTime() - start) / 1E6, length );
+        }
+      } );
+    System.out.println( tour );
+  }
+}
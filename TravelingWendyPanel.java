@@ -12,6 +12,7 @@
   * @date Dec 18, 2017
   ********************************************************************/
 import java.util.*;
+import java.util.concurrent.*;
 
 import java.awt.*;
 import java.awt.event.*;
@@ -20,6 +21,8 @@ import javax.swing.event.*;
 
 /*----------jGraph library---------*/
 import com.mxgraph.swing.mxGraphComponent;
+import com.mxgraph.swing.util.mxRouteOverlay;
+import com.mxgraph.swing.util.mxTiledBackground;
 import com.mxgraph.view.*;
 import com.mxgraph.util.*;
 
@@ -31,7 +34,20 @@ public class TravelingWendyPanel extends JPanel {
   private boolean toggleDistance; //true when distance display is on
   private WendyGraph wendyGraph; //The graph representation of Wellesley
   private String[] selectedNodes; //The names of vertices user clicked on
-  private Object[] coloredCells; //List of vertices to be highlighted  
+  private mxRouteOverlay highlight; //The origin or route painted above the map, or null  
+  
+  //route searches run off the event thread so large maps do not freeze the UI
+  private ExecutorService routeExecutor; //runs one search at a time
+  private Future<?> routeTask; //the search in progress, or null
+  private int routeGeneration; //incremented on cancel, so late results of old searches are dropped
+  private javax.swing.Timer searchTimer; //shows the elapsed time while a search runs
+  private long searchStart; //System.nanoTime() when the search in progress started
+  
+  //the map is reprojected to fill the panel when it is resized
+  private int mapWidth, mapHeight; //size the map is projected to at mapScale 1, matching the background
+  private double mapScale = 1; //size the map is drawn at, relative to mapWidth and mapHeight
+  private Dimension mapMargin; //room the graph component needs around the projected map
+  private javax.swing.Timer fitTimer; //refits the map once the panel stops changing size
   
   //necessary for mxGraph library functions
   private Vector<Object> vertexObjects; //List of vertices on the map
@@ -50,6 +66,19 @@ public class TravelingWendyPanel extends JPanel {
     selectLabel.setFont(new Font("Monospaced", Font.BOLD, 24));
     toggleDistance = true;
     
+    routeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory(){
+      public Thread newThread(Runnable r){
+        Thread t = new Thread(r, "route-search");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    searchTimer = new javax.swing.Timer(100, new ActionListener(){
+      public void actionPerformed(ActionEvent e){
+        selectLabel.setText(String.format("Searching... %.1f s", (System.nanoTime() - searchStart) / 1E9));
+      }
+    });
+    
     /*------------Initialize GridBagLayout-------------*/
     setLayout(new GridBagLayout());
     GridBagConstraints gc = new GridBagConstraints();
@@ -83,52 +112,20 @@ public class TravelingWendyPanel extends JPanel {
     graph.getStylesheet().getDefaultEdgeStyle().put(mxConstants.STYLE_STROKECOLOR, "#d6e5ff");
     graph.getStylesheet().getDefaultEdgeStyle().put(mxConstants.STYLE_FONTCOLOR, "#d6e5ff");
     
-    graph.getModel().beginUpdate();
-    
-    /*----------Plot all vertices----------*/    
-    vertexObjects = new Vector<Object>(wendyGraph.vertices.size());
-    int[] pixelCoors = new int[2];
-    for (Node vertex : wendyGraph.vertices){
-      pixelCoors = wendyGraph.getPixelCoordinates( Math.abs(vertex.getLat()), 
-                                                  Math.abs(vertex.getLon()),
-                                                  graphViewportWidth,
-                                                  graphViewportHeight);
-      
-      Object v;
-      if (vertex.getisBuilding()){
-        v = graph.insertVertex(parent, null, vertex.getName(), 
-                               pixelCoors[0], pixelCoors[1], 
-                               vertex.getName().length() * 10 - 10, 20,
-                               "BUILDING");
-      } else { //intersection
-        v = graph.insertVertex(parent, null, vertex.getName(), 
-                               pixelCoors[0], pixelCoors[1], 
-                               7, 7,
-                               "INTERSECTION");
-      }      
-      vertexObjects.add( v );
-    }
-    /*----------Draw all edges----------*/
-    for (LinkedList<Edge> edgeList : wendyGraph.edges){
-      for (Edge e : edgeList){
-        Node n1 = e.getNode1();
-        int index1 = wendyGraph.vertices.indexOf(n1);
-        Node n2 = e.getNode2();
-        int index2 = wendyGraph.vertices.indexOf(n2);
-        
-        graph.insertEdge(parent, null, e.getLengthFormatted(0), 
-                         vertexObjects.get(index1), vertexObjects.get(index2),
-                         "endArrow=None;"); 
-      }
-    }
+    /*----------Plot all vertices and edges in one model update----------*/    
+    vertexObjects = new Vector<Object>(Arrays.asList(
+      MapGraphBuilder.build(graph, wendyGraph, graphViewportWidth, graphViewportHeight)));
     
     /*-------------Add graph component to panel--------------*/  
-    graph.getModel().endUpdate();    
-    
     graphComponent = new mxGraphComponent(graph);
     graphComponent.setEnabled(false);    
     add(graphComponent, gc);  
     
+    mapWidth = graphViewportWidth;
+    mapHeight = graphViewportHeight;
+    Dimension fitted = graphComponent.getPreferredSize();
+    mapMargin = new Dimension(Math.max(0, fitted.width - mapWidth), Math.max(0, fitted.height - mapHeight));
+    
     /*----------Click handler, only active on cells----------*/  
     graphComponent.getGraphControl().addMouseListener(new MouseAdapter(){      
       public void mouseReleased(MouseEvent e){
@@ -141,46 +138,16 @@ public class TravelingWendyPanel extends JPanel {
               ((selectedNodes[0] == null) || (selectedNodes[1] == null))) {
             /*----------Origin has not been selected-----------*/
             if ( selectedNodes[0] == null ){            
+              cancelRoute();
               selectedNodes[0] = graph.getLabel(cell);
               selectLabel.setText("Select destination");
               selectLabel.setFont(new Font("Monospaced", Font.BOLD, 24));
-              coloredCells = new Object[]{cell};
-              graph.setCellStyles(mxConstants.STYLE_FILLCOLOR, "red", coloredCells);
-              graph.setCellStyles(mxConstants.STYLE_STROKECOLOR, "red", coloredCells);
+              highlight = graphComponent.addRouteOverlay(new mxRouteOverlay(new Object[]{cell}));
               
               /*--------Origin is already selected, but not destination----------*/
             } else if ( selectedNodes[1] == null ){ 
               selectedNodes[1] = graph.getLabel(cell);
-              graphComponent.refresh();
-              selectLabel.setText("If you see this, something went wrong. Try 'Reset' or reload the program.");
-              
-              /*----------Call Dijkstra method----------*/
-              ArrayList<Node> shortestPath = wendyGraph.runDijkstra(selectedNodes[0], selectedNodes[1]);
-              selectLabel.setText("The shortest path is: "+ shortestPath.toString());
-              selectLabel.setFont(new Font("Monospaced", Font.BOLD, 8));
-              
-              /*---------Color nodes and paths visited, store in Object[] coloredCells----------*/
-              coloredCells = new Object[shortestPath.size()];
-              int j = 0;
-              for (Node n : shortestPath) {
-                int i = wendyGraph.vertices.indexOf(n);
-                coloredCells[j] = vertexObjects.get(i);
-                j++;
-              }            
-              graph.setCellStyles(mxConstants.STYLE_FILLCOLOR, "red", coloredCells);
-              graph.setCellStyles(mxConstants.STYLE_STROKECOLOR, "red", coloredCells);
-              
-              graph.getModel().beginUpdate();
-              try {
-                for (j = 0; j < (coloredCells.length - 1); j++){
-                  Object[] edge = graph.getEdgesBetween(coloredCells[j], coloredCells[j+1]);
-                  graph.setCellStyles(mxConstants.STYLE_STROKECOLOR, "red", edge);
-                  graph.setCellStyles(mxConstants.STYLE_STROKEWIDTH, "4", edge);
-                }
-              } finally {
-                graph.getModel().endUpdate();
-                graphComponent.refresh();
-              }
+              startRoute(selectedNodes[0], selectedNodes[1]);
             }
           }
         }  catch (StringIndexOutOfBoundsException sx) {
@@ -210,40 +177,169 @@ public class TravelingWendyPanel extends JPanel {
     
     /*----------Set and Scale Background @author : Julia----------*/
     
-    ImageIcon image = new ImageIcon("wellesleyBG3.png");
-    graphComponent.setBackgroundImage(image);
+    //drawn from tiles, so only the visible part is scaled when panning and zooming
+    try {
+      graphComponent.setTiledBackground(new mxTiledBackground(new java.io.File("wellesleyBG3.png")));
+    } catch (java.io.IOException ix) {
+      ImageIcon image = new ImageIcon("wellesleyBG3.png");
+      graphComponent.setBackgroundImage(image);
+    }
+    
+    /*----------Refit the map to the panel after resizing----------*/
+    fitTimer = new javax.swing.Timer(150, new ActionListener(){
+      public void actionPerformed(ActionEvent e){
+        fitMap();
+      }
+    });
+    fitTimer.setRepeats(false);
+    addComponentListener(new ComponentAdapter(){
+      public void componentResized(ComponentEvent e){
+        fitTimer.restart();
+      }
+    });
     
   }
   
+  /*
+   * Spreads the map over the room the panel has: every vertex is moved in one
+   * model update, from the cached projection, and the background is scaled to
+   * match. Vertices keep their size, so labels stay readable. The map is never
+   * drawn smaller than the size it was made for; below that the view scrolls.
+   */
+  private void fitMap(){
+    Insets insets = getInsets();
+    int width = getWidth() - insets.left - insets.right - mapMargin.width;
+    int height = getHeight() - insets.top - insets.bottom - mapMargin.height
+      - selectLabel.getPreferredSize().height - resetButton.getParent().getPreferredSize().height;
+    double scale = Math.max(1, Math.min((double)width / mapWidth, (double)height / mapHeight));
+    if (Math.abs(scale - mapScale) < 0.01){
+      return;
+    }
+    
+    mapScale = scale;
+    MapGraphBuilder.reproject(graph, wendyGraph, vertexObjects.toArray(), mapWidth * scale, mapHeight * scale);
+    graphComponent.setBackgroundScale(scale);
+    revalidate();
+  }
+  
+  /*
+   * Searches for the shortest path on the route thread, showing the elapsed
+   * time until the result is drawn by showRoute.
+   * 
+   * @param origin - name of the start node
+   * @param destination - name of the end node
+   */
+  private void startRoute(final String origin, final String destination){
+    cancelRoute();
+    final int generation = routeGeneration;
+    searchStart = System.nanoTime();
+    selectLabel.setText("Searching... 0.0 s");
+    searchTimer.start();
+    
+    routeTask = routeExecutor.submit(new Runnable(){
+      public void run(){
+        final ArrayList<Node> shortestPath;
+        try {
+          /*----------Call Dijkstra method (searching from both ends)----------*/
+          shortestPath = wendyGraph.route(origin, destination, RouteMode.BIDIRECTIONAL);
+        } catch (CancellationException cx) {
+          return; //Reset was clicked while searching
+        } catch (RuntimeException rx) {
+          showRouteErrorLater(generation, rx.toString());
+          return;
+        }
+        if (shortestPath == null) {
+          showRouteErrorLater(generation, "no node named " + origin + " or " + destination);
+          return;
+        }
+        
+        /*---------Find the cells of the path while still off the event thread----------*/
+        final Object[] pathCells = new Object[shortestPath.size()];
+        for (int j = 0; j < pathCells.length; j++) {
+          pathCells[j] = vertexObjects.get(shortestPath.get(j).getId());
+        }
+        
+        SwingUtilities.invokeLater(new Runnable(){
+          public void run(){
+            if (generation == routeGeneration) {
+              showRoute(shortestPath, pathCells);
+            }
+          }
+        });
+      }
+    });
+  }
+  
+  /*
+   * Reports a search that failed, on the event thread, unless it was cancelled meanwhile.
+   * The timer is stopped and the destination cleared, so another one can be picked.
+   * 
+   * @param generation - routeGeneration when the search started
+   * @param message - what went wrong
+   */
+  private void showRouteErrorLater(final int generation, final String message){
+    SwingUtilities.invokeLater(new Runnable(){
+      public void run(){
+        if (generation != routeGeneration) {
+          return;
+        }
+        searchTimer.stop();
+        routeTask = null;
+        selectedNodes[1] = null;
+        selectLabel.setText("No route found (" + message + "), select destination");
+        selectLabel.setFont(new Font("Monospaced", Font.BOLD, 12));
+      }
+    });
+  }
+  
+  /*
+   * Highlights a path found by startRoute; called on the event thread.
+   * The path is painted as an overlay, so the model and its styles are not touched.
+   * 
+   * @param shortestPath - nodes along the path
+   * @param pathCells - the vertex cell of each node
+   */
+  private void showRoute(ArrayList<Node> shortestPath, Object[] pathCells){
+    searchTimer.stop();
+    routeTask = null;
+    double millis = (System.nanoTime() - searchStart) / 1E6;
+    selectLabel.setText("The shortest path is: "+ shortestPath.toString()
+                          + String.format(" (%.0f ms)", millis));
+    selectLabel.setFont(new Font("Monospaced", Font.BOLD, 8));
+    
+    /*---------Color nodes and paths visited, replacing the origin highlight----------*/
+    if (highlight != null) {
+      graphComponent.removeRouteOverlay(highlight);
+    }
+    highlight = graphComponent.addRouteOverlay(new mxRouteOverlay(pathCells));
+  }
+  
+  /*
+   * Stops the search in progress, if any, and makes sure its result is never drawn.
+   */
+  private void cancelRoute(){
+    routeGeneration++;
+    if (routeTask != null) {
+      routeTask.cancel(true);
+      routeTask = null;
+    }
+    searchTimer.stop();
+  }
+  
   /*----------Button handler @author : Xinhui----------*/
   private class ButtonListener implements ActionListener {
     public void actionPerformed(ActionEvent e){
       if (e.getSource() == resetButton){           
+        cancelRoute();
         selectLabel.setText("Select origin");
         selectLabel.setFont(new Font("Monospaced", Font.BOLD, 24));
         
         /*----------Reset any selection-------*/
-        graph.getModel().beginUpdate();        
-        try {
-          /*----------Reset edge style------------*/
-          if (coloredCells != null){
-            for (int j = 1; j < (coloredCells.length); j++){
-              Object[] edge = graph.getEdgesBetween(coloredCells[j-1], coloredCells[j]);
-              graph.setCellStyles(mxConstants.STYLE_STROKECOLOR, "", edge);
-              graph.setCellStyles(mxConstants.STYLE_STROKEWIDTH, "1", edge);
-            }
-          }
-          /*----------Reset node style------------*/
-          graph.setCellStyles(mxConstants.STYLE_FILLCOLOR, "", coloredCells);
-          graph.setCellStyles(mxConstants.STYLE_STROKECOLOR, "", coloredCells);
-          
-          coloredCells = null;
-          selectedNodes = new String[2];
-          
-        } finally {
-          graph.getModel().endUpdate();
-          graphComponent.refresh();
+        if (highlight != null) {
+          graphComponent.removeRouteOverlay(highlight);
+          highlight = null;
         }
+        selectedNodes = new String[2];
         /*------------Toggle distance display------------*/
       } else if (e.getSource() == toggleDistanceButton){
         
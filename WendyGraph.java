@@ -11,8 +11,8 @@
   ****************************************************************/
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
-import javafoundations.*;
 
 public class WendyGraph {
   //instance variables
@@ -28,6 +28,46 @@ public class WendyGraph {
   //Maximum and minimum latitude and longitude of all vertices
   public Double maxLong, minLong, maxLat, minLat; 
   
+  //Projection of coordinates onto the map drawing, for the bounds above
+  private MapProjection projection;
+  
+  //Index of each vertex in vertices by name (each Node also stores its own index)
+  private HashMap<String, Integer> nameIndex;
+  
+  //Compressed adjacency arrays, rebuilt lazily after addNode/addEdge
+  private volatile CompactGraph compact;
+  
+  //Contraction hierarchy of compact, built on request
+  private volatile ContractionHierarchy hierarchy;
+  
+  //Grid over the vertex coordinates for nearest-node lookups, built on request
+  private volatile SpatialIndex spatialIndex;
+  
+  //Landmark distance tables for ALT routing, built or loaded on request
+  private volatile Landmarks landmarks;
+  
+  //Precomputed building-to-building paths, if one has been opened for this map
+  private volatile BuildingDistanceTable buildingTable;
+  
+  //Cache of recent routes, or null
+  private volatile RouteCache routeCache;
+  
+  //Counters and latencies of queries, or null when not measuring
+  private volatile RoutingMetrics metrics;
+  
+  //Lengths of closed (infinite) and reweighted edges, kept when compact is rebuilt
+  private IdentityHashMap<Edge, Double> lengthOverrides = new IdentityHashMap<Edge, Double>();
+  
+  //Incremented every time a node or edge is added, closed or reweighted, so caches know to check old routes
+  private volatile long version;
+  
+  //Number of landmarks landmarks() picks
+  private static final int DEFAULT_LANDMARKS = 8;
+  
+  //Per-thread search state for runDijkstra, and for dijkstra(String)/getPath(String)
+  private final ThreadLocal<SearchContext> queryContexts = new ContextLocal();
+  private final ThreadLocal<SearchContext> treeContexts = new ContextLocal();
+  
   
   /* 
    * Constructor
@@ -38,6 +78,7 @@ public class WendyGraph {
   public WendyGraph( String fileName ) {
     vertices = new ArrayList<Node>();
     edges = new ArrayList<LinkedList<Edge>>();
+    nameIndex = new HashMap<String, Integer>();
     try {
       Scanner in = new Scanner( new File( fileName ));
       
@@ -76,40 +117,152 @@ public class WendyGraph {
           in.next();
       }
       
-      /* Initialize array of longitudes */
-      longitudes = new Double[vertices.size()];
-      /* Initialize array of latitudes */
-      latitudes = new Double[vertices.size()];            
-      int i = 0;
-      for (Node n : vertices){
-        longitudes[i] = n.getLon();
-        latitudes[i] = n.getLat();
-        i++;
-      }
-      /* Instantiate minimum and maximum latitude and longitude */
-      Sorting.quickSort(longitudes, 0, longitudes.length - 1);
-      Sorting.quickSort(latitudes, 0, latitudes.length - 1);
-      maxLat = Math.abs(latitudes[0]); 
-      minLat = Math.abs(latitudes[latitudes.length - 1]); 
-      maxLong = Math.abs(longitudes[0]);
-      minLong = Math.abs(longitudes[longitudes.length - 1]);
+      computeBounds();
       
+      compact();
     } catch( IOException e ) {
       System.out.println( "File IO Exception" );
     }
   }
   
+  /*
+   * Loads a map from either a text file (the format read by the constructor)
+   * or a binary map file written by BinaryMapFile.
+   * 
+   * @param fileName - name of the map file
+   * @return the graph
+   */
+  public static WendyGraph load( String fileName ) throws IOException {
+    File file = new File( fileName );
+    if( BinaryMapFile.isBinaryMapFile( file ) )
+      return BinaryMapFile.read( file );
+    return new WendyGraph( fileName );
+  }
+  
+  /*
+   * Creates a WendyGraph from already parsed arrays instead of a text file.
+   * Used by the binary and streaming map loaders, so nodes and edges are added
+   * without any name lookups. Only the first nodeCount/edgeCount entries of the
+   * arrays are used.
+   * 
+   * @param names - name of each vertex
+   * @param lat - latitude of each vertex
+   * @param lon - longitude of each vertex
+   * @param building - true for each vertex that is a building
+   * @param nodeCount - number of vertices
+   * @param edgeFrom - vertex id of one end of each edge
+   * @param edgeTo - vertex id of the other end of each edge
+   * @param edgeLength - length of each edge in meters
+   * @param edgeCount - number of edges
+   * @param offsets - first arc of each vertex (CSR), or null to compute it
+   * @param arcEdges - edge of each arc (CSR), or null to compute it
+   */
+  WendyGraph( String[] names, double[] lat, double[] lon, boolean[] building, int nodeCount,
+              int[] edgeFrom, int[] edgeTo, double[] edgeLength, int edgeCount,
+              int[] offsets, int[] arcEdges ) {
+    vertices = new ArrayList<Node>( nodeCount );
+    edges = new ArrayList<LinkedList<Edge>>( nodeCount );
+    nameIndex = new HashMap<String, Integer>( nodeCount * 2 );
+    
+    for( int i = 0; i < nodeCount; i++ ) {
+      addNode( new Node( names[i], lat[i], lon[i], building[i], Integer.MAX_VALUE ) );
+      edges.add( new LinkedList<Edge>() );
+    }
+    
+    Edge[] edgeList = new Edge[edgeCount];
+    for( int e = 0; e < edgeCount; e++ )
+      edgeList[e] = new Edge( vertices.get( edgeFrom[e] ), vertices.get( edgeTo[e] ), edgeLength[e] );
+    
+    //arcs of each vertex in edge order, as addEdge would have listed them
+    if( offsets == null ) {
+      offsets = new int[nodeCount + 1];
+      for( int e = 0; e < edgeCount; e++ ) {
+        offsets[edgeFrom[e] + 1]++;
+        offsets[edgeTo[e] + 1]++;
+      }
+      for( int u = 0; u < nodeCount; u++ )
+        offsets[u + 1] += offsets[u];
+      arcEdges = new int[2 * edgeCount];
+      int[] fill = Arrays.copyOf( offsets, nodeCount );
+      for( int e = 0; e < edgeCount; e++ ) {
+        arcEdges[fill[edgeFrom[e]]++] = e;
+        arcEdges[fill[edgeTo[e]]++] = e;
+      }
+    }
+    
+    int[] targets = new int[arcEdges.length];
+    double[] lengths = new double[arcEdges.length];
+    Edge[] arcEdgeList = new Edge[arcEdges.length];
+    for( int u = 0; u < nodeCount; u++ ) {
+      LinkedList<Edge> list = edges.get( u );
+      for( int a = offsets[u]; a < offsets[u + 1]; a++ ) {
+        int e = arcEdges[a];
+        targets[a] = edgeFrom[e] == u ? edgeTo[e] : edgeFrom[e];
+        lengths[a] = edgeLength[e];
+        arcEdgeList[a] = edgeList[e];
+        list.add( edgeList[e] );
+      }
+    }
+    
+    computeBounds();
+    compact = new CompactGraph( offsets, targets, lengths, arcEdgeList,
+                                Arrays.copyOf( lat, nodeCount ), Arrays.copyOf( lon, nodeCount ) );
+  }
+  
+  /*
+   * Fills latitudes and longitudes and finds the maximum and minimum latitude and
+   * longitude (maxLat/maxLong hold the absolute value of the smallest coordinate and
+   * minLat/minLong that of the largest, as the map projection expects).
+   */
+  private void computeBounds() {
+    int n = vertices.size();
+    longitudes = new Double[n];
+    latitudes = new Double[n];
+    for( int i = 0; i < n; i++ ) {
+      latitudes[i] = vertices.get( i ).getLat();
+      longitudes[i] = vertices.get( i ).getLon();
+    }
+    projection = new MapProjection( vertices );
+    maxLat = projection.getMaxLat();
+    minLat = projection.getMinLat();
+    maxLong = projection.getMaxLong();
+    minLong = projection.getMinLong();
+  }
+  
+  /*
+   * @return the projection of coordinates onto the map drawing, for the bounds
+   *         of the vertices when the map was loaded
+   */
+  public MapProjection getProjection() {
+    return projection;
+  }
+  
   /* Adds a node to the vertices.
    * @param n - the new node. */
-  public void addNode( Node n ) {
+  public synchronized void addNode( Node n ) {
+    n.setId( vertices.size() );
+    if( !nameIndex.containsKey( n.getName() ) )
+      nameIndex.put( n.getName(), vertices.size() );
     vertices.add( n );
+    compact = null;
+    hierarchy = null;
+    spatialIndex = null;
+    landmarks = null;
+    buildingTable = null;
+    version++;
   }
   
   /* Adds an edge to the edges/
    * @param e - the new edge */
-  public void addEdge( Edge e ) {
+  public synchronized void addEdge( Edge e ) {
     edges.get( findNodeIndex( e.getNode1() ) ).add( e );
     edges.get( findNodeIndex( e.getNode2() ) ).add( e );
+    compact = null;
+    hierarchy = null;
+    spatialIndex = null;
+    landmarks = null;
+    buildingTable = null;
+    version++;
   }
   
   /* Find index of a node in vertices list.
@@ -117,24 +270,410 @@ public class WendyGraph {
    * @return - the index of the node.
    */
   private int findNodeIndex( Node n ) {
-    for( int i = 0; i < vertices.size(); i++ ) {
+    int i = n.getId();
+    if( i >= 0 && i < vertices.size() && vertices.get( i ) == n )
+      return i;
+    
+    //n was added to another graph after this one
+    for( i = 0; i < vertices.size(); i++ ) {
       if( n.equals( vertices.get( i ) ))
         return i;
     }
     return -1;
   }
   
+  /* Find a node by its name.
+   * @param name - name of the node.
+   * @return - the node, or null if there is no node with that name.
+   */
+  public Node getNode( String name ) {
+    Integer i = nameIndex.get( name );
+    return i == null ? null : vertices.get( i );
+  }
+  
   /* Find index of a node from the name of the node in vertices list.
    * @param name - name of the node.
    * @return - the index of the node.
    */
   private int findNodeIndex( String name ) {
-    for( int i = 0; i < vertices.size(); i++ ) {
-      if( name.equals( vertices.get( i ).getName() ) )
-        return i;
+    Integer i = nameIndex.get( name );
+    if( i == null ) {
+      System.out.println( name );
+      return -1;
     }
-    System.out.println( name );
-    return -1;
+    return i;
+  }
+  
+  /*
+   * Returns the compressed adjacency arrays of the graph, building them
+   * from vertices and edges if a node or edge was added since the last call.
+   * 
+   * @return the CompactGraph for the current vertices and edges
+   */
+  public CompactGraph compact() {
+    CompactGraph g = compact;
+    if( g != null )
+      return g;
+    synchronized( this ) {
+      if( compact == null )
+        compact = buildCompact();
+      return compact;
+    }
+  }
+  
+  /*
+   * Returns the contraction hierarchy of the graph, running the preprocessing
+   * if it has not been run since the last node or edge was added. Call this once
+   * after loading a large map so that the first RouteMode.CH query is fast.
+   * 
+   * @return the ContractionHierarchy for the current vertices and edges
+   */
+  public ContractionHierarchy contractionHierarchy() {
+    ContractionHierarchy h = hierarchy;
+    if( h != null )
+      return h;
+    synchronized( this ) {
+      if( hierarchy == null )
+        hierarchy = new ContractionHierarchy( compact() );
+      return hierarchy;
+    }
+  }
+  
+  /*
+   * Returns the spatial index over the vertex coordinates, rebuilding it if a
+   * node or edge was added since the last call (a single linear pass).
+   * 
+   * @return the SpatialIndex for the current vertices and edges
+   */
+  public SpatialIndex spatialIndex() {
+    SpatialIndex s = spatialIndex;
+    if( s != null )
+      return s;
+    synchronized( this ) {
+      if( spatialIndex == null )
+        spatialIndex = new SpatialIndex( compact() );
+      return spatialIndex;
+    }
+  }
+  
+  /*
+   * Finds the node closest to a point, for example a GPS fix or a map click,
+   * so that a route can start or end there.
+   * 
+   * @param lat - latitude of the point
+   * @param lon - longitude of the point
+   * @return the closest node, or null if the graph is empty
+   */
+  public Node nearestNode( double lat, double lon ) {
+    int v = spatialIndex().nearest( lat, lon );
+    return v < 0 ? null : vertices.get( v );
+  }
+  
+  /*
+   * Finds the k nodes closest to a point.
+   * 
+   * @param lat - latitude of the point
+   * @param lon - longitude of the point
+   * @param k - number of nodes to find
+   * @return up to k nodes, closest first
+   */
+  public ArrayList<Node> nearestNodes( double lat, double lon, int k ) {
+    return getPath( spatialIndex().nearest( lat, lon, k ) );
+  }
+  
+  /*
+   * Returns the landmark tables used by RouteMode.ALT, picking landmarks and running
+   * one search from each if no tables have been computed or loaded since the last
+   * node or edge was added. Save them with Landmarks.save to skip this at startup.
+   * 
+   * @return the Landmarks for the current vertices and edges
+   */
+  public Landmarks landmarks() {
+    Landmarks l = landmarks;
+    if( l != null )
+      return l;
+    synchronized( this ) {
+      if( landmarks == null )
+        landmarks = new Landmarks( compact().base(), DEFAULT_LANDMARKS ); //bounds stay valid as edges only get longer
+      return landmarks;
+    }
+  }
+  
+  /*
+   * Uses landmark tables computed earlier (for example read with Landmarks.load)
+   * for RouteMode.ALT.
+   * 
+   * @param l - landmark tables computed for this map
+   */
+  public synchronized void setLandmarks( Landmarks l ) {
+    if( !l.matches( compact() ) )
+      throw new IllegalArgumentException( "Landmark tables were computed for a different map" );
+    landmarks = l;
+  }
+  
+  /*
+   * Answers routes between two buildings from a precomputed table instead of
+   * searching. The table is written by BuildingDistanceTable.write and opened
+   * with BuildingDistanceTable.open; it is dropped when a node or edge is added.
+   * The table holds routes with every edge open, so the rows that edges closed or
+   * reweighted before now may affect start out stale.
+   * 
+   * @param table - building distance table computed for this map, or null to stop using one
+   */
+  public synchronized void setBuildingTable( BuildingDistanceTable table ) {
+    CompactGraph g = compact();
+    if( table != null && !table.matches( g ) )
+      throw new IllegalArgumentException( "Building distance table was computed for a different map" );
+    if( table != null ) {
+      for( Map.Entry<Edge, Double> override : lengthOverrides.entrySet() ) {
+        Edge e = override.getKey();
+        table.edgeChanged( g, findNodeIndex( e.getNode1() ), findNodeIndex( e.getNode2() ),
+                           e.getLength(), override.getValue() );
+      }
+    }
+    buildingTable = table;
+  }
+  
+  /*
+   * Serves repeated routes from a cache. The cache is dropped automatically
+   * whenever a node or edge is added.
+   * 
+   * @param cache - the cache to use, or null to stop caching
+   */
+  public void setRouteCache( RouteCache cache ) {
+    routeCache = cache;
+  }
+  
+  /*
+   * @return the route cache in use, or null
+   */
+  public RouteCache getRouteCache() {
+    return routeCache;
+  }
+  
+  /*
+   * Starts or stops recording what each query costs.
+   * 
+   * @param m - where to record, or null to stop
+   */
+  public void setMetrics( RoutingMetrics m ) {
+    metrics = m;
+  }
+  
+  /*
+   * @return where queries are recorded, or null if they are not
+   */
+  public RoutingMetrics getMetrics() {
+    return metrics;
+  }
+  
+  /*
+   * Starts measuring a query if metrics are on.
+   * 
+   * @param m - the metrics, or null
+   * @param ctx - the search state the query will use
+   * @return the start time, to be passed to endQuery
+   */
+  private static long startQuery( RoutingMetrics m, SearchContext ctx ) {
+    if( m == null )
+      return 0;
+    ctx.resetCounters();
+    return System.nanoTime();
+  }
+  
+  /*
+   * Records a query started with startQuery if metrics are on.
+   * 
+   * @param m - the metrics, or null
+   * @param type - the kind of query
+   * @param ctx - the search state the query used
+   * @param start - what startQuery returned
+   */
+  private static void endQuery( RoutingMetrics m, String type, SearchContext ctx, long start ) {
+    if( m != null )
+      m.record( type, System.nanoTime() - start, ctx );
+  }
+  
+  /*
+   * Records a query refused for naming a node that does not exist, if metrics are on.
+   */
+  private void invalidQuery( String type ) {
+    RoutingMetrics m = metrics;
+    if( m != null )
+      m.recordInvalid( type );
+  }
+  
+  /*
+   * @return a number that changes every time a node or edge is added
+   */
+  public long getVersion() {
+    return version;
+  }
+  
+  /*
+   * Finds an edge between two nodes, for example to close it.
+   * 
+   * @param name1 - the name of one end
+   * @param name2 - the name of the other end
+   * @return an Edge between the two nodes, or null if there is none
+   */
+  public Edge getEdge( String name1, String name2 ) {
+    int u = findNodeIndex( name1 );
+    int v = findNodeIndex( name2 );
+    if( u == -1 || v == -1 )
+      return null;
+    CompactGraph g = compact();
+    for( int a = g.offsets[u]; a < g.offsets[u + 1]; a++ ) {
+      if( g.targets[a] == v )
+        return g.edges[a];
+    }
+    return null;
+  }
+  
+  /*
+   * Closes an edge, for example for construction or snow. Routes found after this
+   * call returns never use it; routes already being searched finish on the graph
+   * as it was when they started.
+   * 
+   * @param e - an edge of this graph
+   */
+  public void closeEdge( Edge e ) {
+    setEdgeLength( e, Double.POSITIVE_INFINITY );
+  }
+  
+  /*
+   * Reopens a closed or reweighted edge at its original length.
+   * 
+   * @param e - an edge of this graph
+   */
+  public void reopenEdge( Edge e ) {
+    setEdgeLength( e, e.getLength() );
+  }
+  
+  /*
+   * Changes the length searches use for an edge, for example to make a slippery
+   * path less attractive. The new length may not be less than the original
+   * length of the edge, so that the straight-line and landmark bounds used by
+   * A* and ALT stay lower bounds.
+   * 
+   * @param e - an edge of this graph
+   * @param length - the new length in meters, at least e.getLength()
+   */
+  public void reweightEdge( Edge e, double length ) {
+    if( !(length >= e.getLength()) )
+      throw new IllegalArgumentException( "An edge cannot be made shorter than its original length "
+                                            + e.getLength() + ": " + length );
+    setEdgeLength( e, length );
+  }
+  
+  /*
+   * @param e - an edge of this graph
+   * @return true if the edge is closed
+   */
+  public synchronized boolean isClosed( Edge e ) {
+    Double override = lengthOverrides.get( e );
+    return override != null && override == Double.POSITIVE_INFINITY;
+  }
+  
+  /*
+   * @param e - an edge of this graph
+   * @return the length searches use for the edge, infinite if it is closed
+   */
+  public synchronized double getEdgeLength( Edge e ) {
+    Double override = lengthOverrides.get( e );
+    return override == null ? e.getLength() : override;
+  }
+  
+  /*
+   * Publishes a graph with a new length for an edge. The cache and the building
+   * table drop only what the change can affect, before the new graph and version
+   * become visible, so a query either sees the old graph or the new one with its
+   * caches repaired. The contraction hierarchy has no cheap repair and is rebuilt
+   * on the next RouteMode.CH query.
+   */
+  private synchronized void setEdgeLength( Edge e, double length ) {
+    CompactGraph g = compact();
+    int u = findNodeIndex( e.getNode1() );
+    int v = findNodeIndex( e.getNode2() );
+    if( u == -1 || v == -1 )
+      throw new IllegalArgumentException( "Not an edge of this graph: " + e );
+    
+    double[] lengths = g.lengths.clone();
+    double oldLength = Double.NaN;
+    for( int end : new int[] { u, v } ) {
+      for( int a = g.offsets[end]; a < g.offsets[end + 1]; a++ ) {
+        if( g.edges[a] == e ) {
+          oldLength = lengths[a];
+          lengths[a] = length;
+        }
+      }
+      if( u == v ) break;
+    }
+    if( Double.isNaN( oldLength ) )
+      throw new IllegalArgumentException( "Not an edge of this graph: " + e );
+    if( oldLength == length )
+      return;
+    
+    if( length == e.getLength() )
+      lengthOverrides.remove( e );
+    else
+      lengthOverrides.put( e, length );
+    CompactGraph changed = g.withLengths( lengths );
+    long newVersion = version + 1;
+    
+    RouteCache cache = routeCache;
+    if( cache != null )
+      cache.edgeChanged( changed, u, v, oldLength, length, newVersion );
+    BuildingDistanceTable table = buildingTable;
+    if( table != null )
+      table.edgeChanged( changed, u, v, oldLength, length );
+    
+    hierarchy = null;
+    compact = changed;
+    version = newVersion;
+  }
+  
+  /*
+   * Builds the compressed adjacency arrays from vertices and edges.
+   * @return the new CompactGraph
+   */
+  private CompactGraph buildCompact() {
+    int n = vertices.size();
+    int[] offsets = new int[n + 1];
+    for( int u = 0; u < n; u++ )
+      offsets[u + 1] = offsets[u] + edges.get( u ).size();
+    
+    double[] lat = new double[n];
+    double[] lon = new double[n];
+    for( int u = 0; u < n; u++ ) {
+      lat[u] = vertices.get( u ).getLat();
+      lon[u] = vertices.get( u ).getLon();
+    }
+    
+    int[] targets = new int[offsets[n]];
+    double[] lengths = new double[offsets[n]];
+    Edge[] arcEdges = new Edge[offsets[n]];
+    int a = 0;
+    for( int u = 0; u < n; u++ ) {
+      Node un = vertices.get( u );
+      for( Edge e : edges.get( u ) ) {
+        targets[a] = findNodeIndex( e.getOtherNode( un ) );
+        lengths[a] = e.getLength();
+        arcEdges[a] = e;
+        a++;
+      }
+    }
+    
+    CompactGraph g = new CompactGraph( offsets, targets, lengths, arcEdges, lat, lon );
+    if( lengthOverrides.isEmpty() )
+      return g;
+    double[] current = lengths.clone();
+    for( a = 0; a < current.length; a++ ) {
+      Double override = lengthOverrides.get( arcEdges[a] );
+      if( override != null )
+        current[a] = override;
+    }
+    return g.withLengths( current );
   }
   
   /* Prints a string representation of WendyGraph object.
@@ -158,13 +697,9 @@ public class WendyGraph {
    * @param mapHeight - the height of the graph viewport.
    * @return - a integer array of x and y coordinates.*/
   public int[] getPixelCoordinates(double lat, double lon, int mapWidth, int mapHeight){
-    /* Brute force handling of floating point precision */
-    Double spanLong = (maxLong - minLong) * 10E5;
-    Double spanLat = (maxLat - minLat) * 10E5;
-    
     int[] pixelCoords = new int[2];
-    pixelCoords[0] = (int)Math.round(((1 - (lon*10E5 - minLong*10E5) / spanLong)) * mapWidth);
-    pixelCoords[1] = (int)Math.round(((lat*10E5 - minLat*10E5) / spanLat) * mapHeight);
+    pixelCoords[0] = projection.toX(lon, mapWidth);
+    pixelCoords[1] = projection.toY(lat, mapHeight);
     
     return pixelCoords;
   }
@@ -176,114 +711,371 @@ public class WendyGraph {
    * were made prior to aid from this implementation.
    */
   
+  /*
+   * Creates a new SearchContext big enough for this graph. A context can be reused
+   * for any number of queries, but only by one thread at a time.
+   * 
+   * @return the new context
+   */
+  public SearchContext newSearchContext() {
+    return new SearchContext( vertices.size() );
+  }
+  
   /**
-   * Sets up the "Queue" (which is actually a tree set) needed for Dijjkstra's algorithm
-   * and makes the needed modifications.
+   * Runs Dijkstra's algorithm from the source and records the shortest path to every
+   * vertex, to be read back with getPath(String) and getAllPaths() on the same thread.
    * 
    * @param sourceName - the name of the start Node
    */
   public void dijkstra( String sourceName ) {
-    if( findNodeIndex( sourceName ) == -1 ) {
+    int source = findNodeIndex( sourceName );
+    if( source == -1 ) {
       System.err.println( "Enter a valid startName" );
+      invalidQuery( "tree" );
       return;
     }
     
-    Node source = vertices.get( findNodeIndex( sourceName ) );
+    dijkstra( treeContexts.get(), source );
+  }
+  
+  /**
+   * Runs Dijkstra's algorithm from the source with the given search state, settling
+   * every reachable vertex. Afterwards ctx holds the distance to every vertex.
+   * 
+   * @param ctx - the search state to use, from newSearchContext()
+   * @param sourceName - the name of the start Node
+   */
+  public void dijkstra( SearchContext ctx, String sourceName ) {
+    int source = findNodeIndex( sourceName );
+    if( source == -1 ) {
+      System.err.println( "Enter a valid startName" );
+      invalidQuery( "tree" );
+      return;
+    }
     
-    //System.out.println( source );
-    PriorityQueue<Node> q = new PriorityQueue<Node>();
+    dijkstra( ctx, source );
+  }
+  
+  /*
+   * Settles every vertex reachable from the source, measured as a "tree" query.
+   */
+  private void dijkstra( SearchContext ctx, int source ) {
+    RoutingMetrics m = metrics;
+    long t = startQuery( m, ctx );
+    dijkstra( compact(), ctx, source, -1 );
+    endQuery( m, "tree", ctx, t );
+  }
+  
+  /**
+   * Performs the bulk of Dijkstra's algorithm over the compressed adjacency arrays,
+   * settling vertices in order of distance until the target is settled or the
+   * queue is empty.
+   * 
+   * @param g - the compressed adjacency arrays
+   * @param ctx - the search state to use
+   * @param source - the id of the start vertex
+   * @param target - the id of the end vertex, or -1 to settle every reachable vertex
+   */
+  static void dijkstra( CompactGraph g, SearchContext ctx, int source, int target ) {
+    ctx.reset( g.nodeCount );
+    ctx.update( source, 0, source );
+    DistanceHeap q = ctx.heap;
+    q.add( source, 0 );
     
-    for( Node v : vertices ) {
+    while( !q.isEmpty() ) {
+      double d = q.peekKey();
+      int u = q.poll(); //vertex with the shortest distance
       
-      if( v.getName().equals( sourceName ) ) {
-        v.setWeight( 0 );
-        v.setPrev( v );
-      }
-      else  {
-        v.setWeight( Double.MAX_VALUE );
-        v.setPrev( null );
+      if( ctx.isSettled( u ) ) continue; //stale entry, u was already settled with a shorter distance
+      ctx.settle( u );
+      if( u == target ) return;
+      
+      //distances to each neighbor
+      for( int a = g.offsets[u]; a < g.offsets[u + 1]; a++ ) {
+        int v = g.targets[a];
+        double altWeight = d + g.lengths[a];
+        
+        //change weight if there is a lower one found
+        if( altWeight < ctx.distance( v ) ) {
+          ctx.update( v, altWeight, u );
+          q.add( v, altWeight );
+        }
       }
-      q.add( v );
     }
-    
-    dijkstra(q);
   }
   
   /**
-   * Empties the "Queue" and updates the weights and previous nodes of all vertices
-   * (Performs the bulk of Dijkstra's algorithm)
+   * A* search from source to target. Vertices are taken from the queue in order of
+   * their distance plus a lower bound on the distance left to the target (the great
+   * circle distance, or the landmark bound if landmark tables are given). The bound
+   * never overestimates, so the path is still a shortest one but the search heads
+   * towards the target instead of growing evenly in all directions. Stops when the
+   * target is settled.
    * 
-   * @param q - a NavigableSet containing all Nodes in vertices
+   * @param g - the compressed adjacency arrays
+   * @param ctx - the search state to use
+   * @param source - the id of the start vertex
+   * @param target - the id of the end vertex
+   * @param lm - landmark tables for the bound, or null for the great circle distance
    */
-  private void dijkstra( final PriorityQueue<Node> q ) {
-    Node u, v;
+  private void aStar( CompactGraph g, SearchContext ctx, int source, int target, Landmarks lm ) {
+    ctx.reset( g.nodeCount );
+    ctx.update( source, 0, source );
+    DistanceHeap q = ctx.heap;
+    q.add( source, lm == null ? g.greatCircleDistance( source, target ) : lm.lowerBound( source, target ) );
+    
     while( !q.isEmpty() ) {
+      int u = q.poll();
       
-      u = q.poll(); //node with the shortest distance
+      if( ctx.isSettled( u ) ) continue; //stale entry
+      ctx.settle( u );
+      if( u == target ) return;
       
-      if( u.getWeight() == Double.MAX_VALUE) break; //we can ignore u because it is unreachable
+      double d = ctx.distance( u );
+      for( int a = g.offsets[u]; a < g.offsets[u + 1]; a++ ) {
+        int v = g.targets[a];
+        double altWeight = d + g.lengths[a];
+        
+        if( altWeight < ctx.distance( v ) ) {
+          ctx.update( v, altWeight, u );
+          q.add( v, altWeight + (lm == null ? g.greatCircleDistance( v, target )
+                                            : lm.lowerBound( v, target )) );
+        }
+      }
+    }
+  }
+  
+  /**
+   * Bidirectional Dijkstra: one search grows from the source and one from the target
+   * (edges are undirected, so both use the same arcs), always advancing the side whose
+   * next vertex is closer. Every arc relaxed into a vertex the other side has reached
+   * gives a candidate path; once the two queue minimums add up to at least the best
+   * candidate, no shorter path can exist and the search stops.
+   * 
+   * @param g - the compressed adjacency arrays
+   * @param ctx - the search state to use for the forward search
+   * @param source - the id of the start vertex
+   * @param target - the id of the end vertex
+   * @return the vertex where the shortest path passes from one search into the other,
+   *         or -1 if the target cannot be reached
+   */
+  private int bidirectional( CompactGraph g, SearchContext ctx, int source, int target ) {
+    SearchContext fwd = ctx;
+    SearchContext bwd = ctx.backward();
+    fwd.reset( g.nodeCount );
+    bwd.reset( g.nodeCount );
+    fwd.update( source, 0, source );
+    bwd.update( target, 0, target );
+    fwd.heap.add( source, 0 );
+    bwd.heap.add( target, 0 );
+    
+    double best = Double.MAX_VALUE;
+    int meet = -1;
+    if( source == target ) {
+      best = 0;
+      meet = source;
+    }
+    
+    while( !fwd.heap.isEmpty() && !bwd.heap.isEmpty() ) {
+      if( fwd.heap.peekKey() + bwd.heap.peekKey() >= best ) break;
       
-      //distances to each neighbor
-      for( Edge e: edges.get( findNodeIndex( u ) ) ) {
-        v = e.getOtherNode( u );
+      SearchContext side, other;
+      if( fwd.heap.peekKey() <= bwd.heap.peekKey() ) {
+        side = fwd;
+        other = bwd;
+      } else {
+        side = bwd;
+        other = fwd;
+      }
+      
+      double d = side.heap.peekKey();
+      int u = side.heap.poll();
+      if( side.isSettled( u ) ) continue; //stale entry
+      side.settle( u );
+      
+      for( int a = g.offsets[u]; a < g.offsets[u + 1]; a++ ) {
+        int v = g.targets[a];
+        double altWeight = d + g.lengths[a];
         
-        double altWeight = u.getWeight() + e.getLength();
+        if( altWeight < side.distance( v ) ) {
+          side.update( v, altWeight, u );
+          side.heap.add( v, altWeight );
+        }
         
-        //change weight if there is a lower one found
-        if( altWeight < v.getWeight() ) {
-          q.remove( v );
-          v.setWeight( altWeight );
-          v.setPrev( u );
-          q.add( v );
+        double otherWeight = other.distance( v );
+        if( otherWeight != Double.MAX_VALUE && altWeight + otherWeight < best ) {
+          best = altWeight + otherWeight;
+          meet = v;
         }
       }
     }
+    
+    fwd.addSettledCount( bwd.getSettledCount() );
+    return meet;
+  }
+  
+  /*
+   * Joins the two halves of a bidirectional search into one path.
+   * 
+   * @param ctx - the forward search state of a finished bidirectional search
+   * @param meet - the vertex where the two searches met, or -1
+   * @param end - the id of the destination vertex
+   * @return an ArrayList of all nodes along the path from the source node to the end node
+   */
+  private ArrayList<Node> getBidirectionalPath( SearchContext ctx, int meet, int end ) {
+    if( meet == -1 ) {
+      ArrayList<Node> path = new ArrayList<Node>();
+      path.add( vertices.get( end ) );
+      return path;
+    }
+    
+    ArrayList<Node> path = getPath( ctx, meet );
+    SearchContext bwd = ctx.backward();
+    int v = meet;
+    while( bwd.parent( v ) != -1 && bwd.parent( v ) != v ) {
+      v = bwd.parent( v );
+      path.add( vertices.get( v ) );
+    }
+    return path;
   }
   
   /*
    * Finds all nodes along the shortest path from the source node (for which Dijkstra's alg has
-   * already been run) and the end node.
+   * already been run on this thread) and the end node.
    * 
    * @param endName - the name of the destination node
    * @return an ArrayList of all nodes along the path from the source node to the end node
    */
   public ArrayList<Node> getPath( String endName ) {
-    if( findNodeIndex( endName ) == -1 ) {
+    int end = findNodeIndex( endName );
+    if( end == -1 ) {
       System.err.println( "Enter a valid endName" );
       return null;
     }
-    
+    return getPath( treeContexts.get(), end );
+  }
+  
+  /*
+   * Walks the parent vertex ids of a search back from the end vertex to the source.
+   * If the end vertex was not reached, the path only contains the end node.
+   * 
+   * @param ctx - the search state of a finished search
+   * @param end - the id of the destination vertex
+   * @return an ArrayList of all nodes along the path from the source node to the end node
+   */
+  private ArrayList<Node> getPath( SearchContext ctx, int end ) {
     ArrayList<Node> path = new ArrayList<Node>();
     
-    path.add( vertices.get( findNodeIndex( endName ) ) );
-    
-    while( path.get( path.size() - 1 ).getPrev() != null && 
-          path.get( path.size() - 1 ).getPrev() != path.get( path.size() - 1 )) {
-      path.add( path.get(path.size() - 1).getPrev() );
+    int v = end;
+    path.add( vertices.get( v ) );
+    while( ctx.parent( v ) != -1 && ctx.parent( v ) != v ) {
+      v = ctx.parent( v );
+      path.add( vertices.get( v ) );
     }
     
     Collections.reverse( path );
     return path;
   }
   
+  /*
+   * Lists the nodes for a sequence of vertex ids.
+   * 
+   * @param ids - the vertex ids along a path
+   * @return an ArrayList of all nodes along the path
+   */
+  private ArrayList<Node> getPath( int[] ids ) {
+    ArrayList<Node> path = new ArrayList<Node>( ids.length );
+    for( int id : ids )
+      path.add( vertices.get( id ) );
+    return path;
+  }
+  
+  /*
+   * Lists the nodes along a sequence of edges.
+   * 
+   * @param start - the node the first edge leaves from
+   * @param pathEdges - the edges along the path, in order
+   * @return an ArrayList of all nodes along the path
+   */
+  private ArrayList<Node> getPath( Node start, ArrayList<Edge> pathEdges ) {
+    ArrayList<Node> path = new ArrayList<Node>( pathEdges.size() + 1 );
+    Node n = start;
+    path.add( n );
+    for( Edge e : pathEdges ) {
+      n = e.getOtherNode( n );
+      path.add( n );
+    }
+    return path;
+  }
+  
+  /**
+   * Adds up the length of a path with the current edge lengths, taking the
+   * shortest open edge between each two consecutive nodes.
+   * 
+   * @param path - nodes along a path, as returned by route
+   * @return the length in meters, or Double.MAX_VALUE if two consecutive nodes are
+   *         not joined by an open edge
+   */
+  public double getPathLength( ArrayList<Node> path ) {
+    CompactGraph g = compact();
+    double length = 0;
+    for( int i = 1; i < path.size(); i++ ) {
+      int u = findNodeIndex( path.get( i - 1 ) ), v = findNodeIndex( path.get( i ) );
+      double step = Double.POSITIVE_INFINITY;
+      for( int a = g.offsets[u]; a < g.offsets[u + 1]; a++ ) {
+        if( g.targets[a] == v )
+          step = Math.min( step, g.lengths[a] );
+      }
+      if( step == Double.POSITIVE_INFINITY )
+        return Double.MAX_VALUE;
+      length += step;
+    }
+    return length;
+  }
+  
   /**
-   * Finds the shortest path of nodes from the source node to all other nodes
+   * Finds the shortest path of nodes from the source node to all other nodes.
+   * This builds every path at once; shortestPathTree() keeps them in O(V) space
+   * and builds only the paths asked for.
    * 
    * @return an ArrayList of all paths (each of which is also an ArrayList)
    */
   public ArrayList<ArrayList<Node>> getAllPaths() {
     ArrayList<ArrayList<Node>> allPaths = new ArrayList<ArrayList<Node>>();
+    SearchContext ctx = treeContexts.get();
     
-    for( Node n: vertices ) {
-      allPaths.add( getPath( n.getName() ) );
+    for( int i = 0; i < vertices.size(); i++ ) {
+      allPaths.add( getPath( ctx, i ) );
     }
     
     return allPaths;
   }
   
+  /**
+   * Runs Dijkstra's algorithm from the source and keeps the shortest path to every
+   * vertex. Safe to call from several threads at once.
+   * 
+   * @param sourceName - the name of the start Node
+   * @return the tree of shortest paths from the source, or null if sourceName is not a node
+   */
+  public ShortestPathTree shortestPathTree( String sourceName ) {
+    int source = findNodeIndex( sourceName );
+    if( source == -1 ) {
+      System.err.println( "Enter a valid startName" );
+      invalidQuery( "tree" );
+      return null;
+    }
+    
+    CompactGraph g = compact();
+    SearchContext ctx = queryContexts.get();
+    dijkstra( ctx, source );
+    return ShortestPathTree.of( vertices, ctx, source, g.nodeCount );
+  }
+  
   /**
    * Runs dijkstra's algorithm and returns the path 
    * from node of startName to the node of endName.
+   * Safe to call from several threads at once, each gets its own search state.
    * 
    * @param startName - the name of the start node
    * @param endName - the name of the end node
@@ -291,12 +1083,699 @@ public class WendyGraph {
    * @return the shortest path of nodes from start node to end node
    */
   public ArrayList<Node> runDijkstra( String startName, String endName ) {
-    dijkstra( startName );
-    return getPath( endName );
+    return runDijkstra( queryContexts.get(), startName, endName );
+  }
+  
+  /**
+   * Runs dijkstra's algorithm with the given search state and returns the path 
+   * from node of startName to the node of endName. The search stops as soon as
+   * the end node is settled.
+   * 
+   * @param ctx - the search state to use, from newSearchContext()
+   * @param startName - the name of the start node
+   * @param endName - the name of the end node
+   * 
+   * @return the shortest path of nodes from start node to end node
+   */
+  public ArrayList<Node> runDijkstra( SearchContext ctx, String startName, String endName ) {
+    return route( ctx, startName, endName, RouteMode.DIJKSTRA );
+  }
+  
+  /**
+   * Finds the shortest path from node of startName to the node of endName
+   * with the given search algorithm.
+   * Safe to call from several threads at once, each gets its own search state.
+   * 
+   * @param startName - the name of the start node
+   * @param endName - the name of the end node
+   * @param mode - the search algorithm to use
+   * 
+   * @return the shortest path of nodes from start node to end node
+   */
+  public ArrayList<Node> route( String startName, String endName, RouteMode mode ) {
+    return route( queryContexts.get(), startName, endName, mode );
+  }
+  
+  /**
+   * Finds the shortest path from node of startName to the node of endName
+   * with the given search algorithm and search state. If the calling thread is
+   * interrupted the search stops with a CancellationException.
+   * 
+   * @param ctx - the search state to use, from newSearchContext()
+   * @param startName - the name of the start node
+   * @param endName - the name of the end node
+   * @param mode - the search algorithm to use
+   * 
+   * @return the shortest path of nodes from start node to end node
+   */
+  public ArrayList<Node> route( SearchContext ctx, String startName, String endName, RouteMode mode ) {
+    int start = findNodeIndex( startName );
+    if( start == -1 ) {
+      System.err.println( "Enter a valid startName" );
+      invalidQuery( mode.name() );
+      return null;
+    }
+    int end = findNodeIndex( endName );
+    if( end == -1 ) {
+      System.err.println( "Enter a valid endName" );
+      invalidQuery( mode.name() );
+      return null;
+    }
+    
+    RoutingMetrics m = metrics;
+    long t = startQuery( m, ctx );
+    ArrayList<Node> path = route( ctx, start, end, mode );
+    endQuery( m, mode.name(), ctx, t );
+    return path;
+  }
+  
+  /*
+   * Finds the shortest path between two vertices, from the building table or
+   * the route cache if they have it.
+   */
+  private ArrayList<Node> route( SearchContext ctx, int start, int end, RouteMode mode ) {
+    long graphVersion = version;
+    CompactGraph g = compact();
+    
+    //building to building routes are read from the precomputed table
+    BuildingDistanceTable table = buildingTable;
+    if( table != null && table.contains( start ) && table.contains( end ) && !table.isStale( start ) ) {
+      ctx.reset( g.nodeCount );
+      return getPath( table.path( start, end ) );
+    }
+    
+    RouteCache cache = routeCache;
+    if( cache == null )
+      return search( g, ctx, start, end, mode );
+    
+    ArrayList<Node> path = cache.getPath( start, end, graphVersion );
+    if( path != null ) {
+      ctx.reset( g.nodeCount );
+      return new ArrayList<Node>( path );
+    }
+    
+    if( cache.isCachingTrees() ) {
+      //one search from the start serves every later destination
+      ShortestPathTree tree = cache.getTree( start, graphVersion );
+      if( tree == null ) {
+        dijkstra( g, ctx, start, -1 );
+        tree = ShortestPathTree.of( vertices, ctx, start, g.nodeCount );
+        cache.putTree( start, tree, graphVersion );
+      } else {
+        ctx.reset( g.nodeCount );
+      }
+      path = tree.getPath( end );
+    } else {
+      cache.countMiss();
+      path = search( g, ctx, start, end, mode );
+    }
+    
+    cache.putPath( start, end, path, graphVersion );
+    return new ArrayList<Node>( path );
+  }
+  
+  /**
+   * Finds the shortest distance from every source node to every target node,
+   * for example from every dorm to every lecture hall.
+   * 
+   * @param sourceNames - the names of the origin nodes
+   * @param targetNames - the names of the destination nodes
+   * 
+   * @return the distances in meters, row by row: the distance from source i to target j
+   *         is at [i * targetNames.length + j], Double.MAX_VALUE if there is no path;
+   *         null if a name is not a node
+   */
+  public double[] distanceMatrix( String[] sourceNames, String[] targetNames ) {
+    return distanceMatrix( sourceNames, targetNames, true );
+  }
+  
+  /**
+   * Finds the shortest distance from every source node to every target node,
+   * either spread over the common ForkJoinPool or entirely on the calling thread.
+   * On the calling thread the searches stop with a CancellationException if the
+   * thread is interrupted, so a caller with its own bounded pool and timeout
+   * (such as RoutingServer) can give up on a large matrix.
+   * 
+   * @param sourceNames - the names of the origin nodes
+   * @param targetNames - the names of the destination nodes
+   * @param parallel - true to use the common ForkJoinPool, false to search on this thread
+   * 
+   * @return the distances in meters, as distanceMatrix( sourceNames, targetNames );
+   *         null if a name is not a node
+   */
+  public double[] distanceMatrix( String[] sourceNames, String[] targetNames, boolean parallel ) {
+    int[] sources = new int[sourceNames.length];
+    for( int i = 0; i < sources.length; i++ ) {
+      sources[i] = findNodeIndex( sourceNames[i] );
+      if( sources[i] == -1 ) {
+        System.err.println( "Enter a valid source name" );
+        invalidQuery( "matrix" );
+        return null;
+      }
+    }
+    int[] targets = new int[targetNames.length];
+    for( int j = 0; j < targets.length; j++ ) {
+      targets[j] = findNodeIndex( targetNames[j] );
+      if( targets[j] == -1 ) {
+        System.err.println( "Enter a valid target name" );
+        invalidQuery( "matrix" );
+        return null;
+      }
+    }
+    return distanceMatrix( sources, targets, parallel );
+  }
+  
+  /**
+   * Finds the shortest distance from every source vertex to every target vertex.
+   * Runs one search per source, which stops as soon as every target is settled.
+   * The searches are spread over the common ForkJoinPool, each worker thread
+   * using its own search state.
+   * 
+   * @param sources - the ids of the origin vertices
+   * @param targets - the ids of the destination vertices
+   * 
+   * @return the distances in meters, row by row: the distance from sources[i] to targets[j]
+   *         is at [i * targets.length + j], Double.MAX_VALUE if there is no path
+   */
+  public double[] distanceMatrix( int[] sources, int[] targets ) {
+    return distanceMatrix( sources, targets, true );
+  }
+  
+  /**
+   * Finds the shortest distance from every source vertex to every target vertex,
+   * either spread over the common ForkJoinPool or entirely on the calling thread.
+   * 
+   * @param sources - the ids of the origin vertices
+   * @param targets - the ids of the destination vertices
+   * @param parallel - true to use the common ForkJoinPool, false to search on this thread
+   * 
+   * @return the distances in meters, as distanceMatrix( sources, targets )
+   * @throws CancellationException if parallel is false and this thread is interrupted
+   */
+  public double[] distanceMatrix( int[] sources, int[] targets, boolean parallel ) {
+    CompactGraph g = compact();
+    boolean[] isTarget = new boolean[g.nodeCount];
+    int targetCount = 0;
+    for( int t : targets ) {
+      if( !isTarget[t] ) {
+        isTarget[t] = true;
+        targetCount++;
+      }
+    }
+    
+    double[] matrix = new double[sources.length * targets.length];
+    MatrixTask task = new MatrixTask( g, queryContexts, metrics, sources, targets, isTarget, targetCount,
+                                      matrix, 0, sources.length );
+    if( parallel )
+      ForkJoinPool.commonPool().invoke( task );
+    else
+      task.fill(); //one row at a time on this thread
+    return matrix;
+  }
+  
+  /**
+   * Dijkstra's algorithm from the source until every target vertex is settled
+   * (or every reachable vertex, if some target cannot be reached).
+   * 
+   * @param g - the compressed adjacency arrays
+   * @param ctx - the search state to use
+   * @param source - the id of the start vertex
+   * @param isTarget - true for each target vertex
+   * @param targetCount - number of target vertices
+   */
+  static void dijkstra( CompactGraph g, SearchContext ctx, int source, boolean[] isTarget, int targetCount ) {
+    ctx.reset( g.nodeCount );
+    ctx.update( source, 0, source );
+    DistanceHeap q = ctx.heap;
+    q.add( source, 0 );
+    int left = targetCount;
+    
+    while( !q.isEmpty() ) {
+      double d = q.peekKey();
+      int u = q.poll();
+      
+      if( ctx.isSettled( u ) ) continue; //stale entry
+      ctx.settle( u );
+      if( isTarget[u] && --left == 0 ) return;
+      
+      for( int a = g.offsets[u]; a < g.offsets[u + 1]; a++ ) {
+        int v = g.targets[a];
+        double altWeight = d + g.lengths[a];
+        if( altWeight < ctx.distance( v ) ) {
+          ctx.update( v, altWeight, u );
+          q.add( v, altWeight );
+        }
+      }
+    }
+  }
+  
+  /**
+   * Finds every node within a walking distance of the start node, for example
+   * the buildings reachable in 500 meters. The search stops as soon as the
+   * closest vertex left in the queue is beyond the limit, so it only costs as
+   * much as the size of the region.
+   * 
+   * @param startName - the name of the start node
+   * @param maxMeters - the walking distance
+   * @param withBoundary - true to also find where the limit cuts the edges leaving the region
+   * 
+   * @return the nodes within maxMeters, closest first, or null if startName is not a node
+   */
+  public ReachableRegion reachable( String startName, double maxMeters, boolean withBoundary ) {
+    int start = findNodeIndex( startName );
+    if( start == -1 ) {
+      System.err.println( "Enter a valid startName" );
+      invalidQuery( "reachable" );
+      return null;
+    }
+    
+    CompactGraph g = compact();
+    SearchContext ctx = queryContexts.get();
+    RoutingMetrics m = metrics;
+    long t = startQuery( m, ctx );
+    int[] region = dijkstraWithin( g, ctx, start, maxMeters );
+    endQuery( m, "reachable", ctx, t );
+    
+    ArrayList<Node> nodes = new ArrayList<Node>( region.length );
+    double[] distances = new double[region.length];
+    for( int i = 0; i < region.length; i++ ) {
+      nodes.add( vertices.get( region[i] ) );
+      distances[i] = ctx.distance( region[i] );
+    }
+    
+    ArrayList<ReachableRegion.Cut> boundary = null;
+    if( withBoundary ) {
+      //an arc is cut if its far end is beyond the limit, or if both ends are within the
+      //limit but the middle of the edge is not (each direction then gives one cut)
+      boundary = new ArrayList<ReachableRegion.Cut>();
+      for( int u : region ) {
+        double du = ctx.distance( u );
+        for( int a = g.offsets[u]; a < g.offsets[u + 1]; a++ ) {
+          int v = g.targets[a];
+          double length = g.lengths[a];
+          if( du + length <= maxMeters || length == Double.POSITIVE_INFINITY ) continue; //inside, or closed
+          double dv = ctx.isSettled( v ) ? ctx.distance( v ) : Double.MAX_VALUE;
+          if( dv != Double.MAX_VALUE && du + dv + length <= 2 * maxMeters ) continue;
+          
+          ReachableRegion.Cut cut = new ReachableRegion.Cut();
+          cut.edge = g.edges[a];
+          cut.from = vertices.get( u );
+          cut.to = vertices.get( v );
+          cut.fraction = (maxMeters - du) / length;
+          cut.lat = g.lat[u] + cut.fraction * (g.lat[v] - g.lat[u]);
+          cut.lon = g.lon[u] + cut.fraction * (g.lon[v] - g.lon[u]);
+          boundary.add( cut );
+        }
+      }
+    }
+    return new ReachableRegion( maxMeters, nodes, distances, boundary );
+  }
+  
+  /**
+   * Dijkstra's algorithm from the source, stopping once the next vertex to be
+   * settled is farther than the limit.
+   * 
+   * @param g - the compressed adjacency arrays
+   * @param ctx - the search state to use
+   * @param source - the id of the start vertex
+   * @param limit - the largest distance to settle
+   * @return the ids of the settled vertices, in the order they were settled
+   */
+  static int[] dijkstraWithin( CompactGraph g, SearchContext ctx, int source, double limit ) {
+    ctx.reset( g.nodeCount );
+    ctx.update( source, 0, source );
+    DistanceHeap q = ctx.heap;
+    q.add( source, 0 );
+    int[] region = new int[16];
+    int count = 0;
+    
+    while( !q.isEmpty() && q.peekKey() <= limit ) {
+      double d = q.peekKey();
+      int u = q.poll();
+      
+      if( ctx.isSettled( u ) ) continue; //stale entry
+      ctx.settle( u );
+      if( count == region.length )
+        region = Arrays.copyOf( region, count * 2 );
+      region[count++] = u;
+      
+      for( int a = g.offsets[u]; a < g.offsets[u + 1]; a++ ) {
+        int v = g.targets[a];
+        double altWeight = d + g.lengths[a];
+        if( altWeight < ctx.distance( v ) ) {
+          ctx.update( v, altWeight, u );
+          q.add( v, altWeight );
+        }
+      }
+    }
+    return Arrays.copyOf( region, count );
+  }
+  
+  /**
+   * Finds the k shortest loopless routes from node of startName to the node of
+   * endName, for offering alternative routes, with Yen's algorithm.
+   * 
+   * Every new route leaves the previous one at some spur node: it follows the previous
+   * route up to there (the root), then takes a different next step. For each spur node
+   * an A* search finds the shortest way on from it that avoids the root and the next
+   * steps already taken by routes with the same root.
+   * 
+   * The A* bound comes from one backward search from the end node, run until the start
+   * is settled at distance R: the exact distance to the end for the vertices it settled,
+   * and the larger of R and the great circle distance for the rest. Only the k - found
+   * shortest candidates can still be needed, so a spur search is skipped or cut short
+   * once the root plus the bound cannot beat the last of those.
+   * 
+   * @param startName - the name of the start node
+   * @param endName - the name of the end node
+   * @param k - the number of routes to find
+   * 
+   * @return up to k routes, shortest first (fewer if there are not k loopless routes),
+   *         or null if a name is not a node
+   */
+  public ArrayList<Route> kShortestPaths( String startName, String endName, int k ) {
+    int start = findNodeIndex( startName );
+    if( start == -1 ) {
+      System.err.println( "Enter a valid startName" );
+      invalidQuery( "kShortestPaths" );
+      return null;
+    }
+    int end = findNodeIndex( endName );
+    if( end == -1 ) {
+      System.err.println( "Enter a valid endName" );
+      invalidQuery( "kShortestPaths" );
+      return null;
+    }
+    
+    CompactGraph g = compact();
+    SearchContext ctx = queryContexts.get();
+    RoutingMetrics m = metrics;
+    long t = startQuery( m, ctx );
+    ArrayList<Candidate> found = new ArrayList<Candidate>();
+    ArrayList<Candidate> candidates = new ArrayList<Candidate>(); //shortest first
+    HashSet<Candidate> seen = new HashSet<Candidate>();
+    int[] bannedNext = new int[16];
+    
+    //distances to the end, for the A* bound
+    SearchContext toEnd = ctx.backward();
+    dijkstra( g, toEnd, end, start );
+    if( !toEnd.isSettled( start ) ) {
+      endQuery( m, "kShortestPaths", ctx, t );
+      return new ArrayList<Route>();
+    }
+    double radius = toEnd.distance( start );
+    
+    ctx.clearBlocks();
+    Candidate first = spurPath( g, ctx, toEnd, radius, null, 0, start, end, bannedNext, 0, Double.MAX_VALUE );
+    if( first != null && k > 0 ) {
+      found.add( first );
+      seen.add( first );
+    }
+    
+    while( !found.isEmpty() && found.size() < k ) {
+      Candidate last = found.get( found.size() - 1 );
+      int needed = k - found.size();
+      
+      for( int i = 0; i < last.ids.length - 1; i++ ) {
+        int spur = last.ids[i];
+        double bound = candidates.size() < needed ? Double.MAX_VALUE
+                                                  : candidates.get( needed - 1 ).length;
+        if( last.lengths[i] + lowerBound( g, toEnd, radius, spur, end ) >= bound ) continue;
+        
+        //the root is off limits, and so are the next steps of routes sharing it
+        ctx.clearBlocks();
+        for( int j = 0; j < i; j++ )
+          ctx.block( last.ids[j] );
+        int bannedCount = 0;
+        for( Candidate c : found ) {
+          if( c.ids.length > i + 1 && c.sharesRoot( last, i ) ) {
+            if( bannedCount == bannedNext.length )
+              bannedNext = Arrays.copyOf( bannedNext, bannedCount * 2 );
+            bannedNext[bannedCount++] = c.ids[i + 1];
+          }
+        }
+        
+        Candidate c = spurPath( g, ctx, toEnd, radius, last, i, spur, end, bannedNext, bannedCount, bound );
+        if( c == null || !seen.add( c ) ) continue;
+        
+        int pos = candidates.size();
+        while( pos > 0 && candidates.get( pos - 1 ).length > c.length )
+          pos--;
+        candidates.add( pos, c );
+        if( candidates.size() > needed )
+          candidates.remove( candidates.size() - 1 );
+      }
+      
+      if( candidates.isEmpty() ) break;
+      found.add( candidates.remove( 0 ) );
+    }
+    ctx.clearBlocks();
+    
+    ArrayList<Route> routes = new ArrayList<Route>( found.size() );
+    for( Candidate c : found )
+      routes.add( new Route( getPath( c.ids ), c.length ) );
+    endQuery( m, "kShortestPaths", ctx, t );
+    return routes;
+  }
+  
+  /*
+   * A* search for the rest of a route from a spur vertex, avoiding blocked
+   * vertices and the banned next steps out of the spur vertex.
+   * 
+   * @param g - the compressed adjacency arrays
+   * @param ctx - the search state to use, with the root of the route blocked
+   * @param toEnd - a backward search from the target
+   * @param radius - distance up to which toEnd settled every vertex
+   * @param root - the route to branch off, or null to search from the start
+   * @param i - index of the spur vertex in root
+   * @param spur - the id of the spur vertex
+   * @param target - the id of the end vertex
+   * @param bannedNext - vertices that may not follow the spur vertex
+   * @param bannedCount - number of entries in bannedNext
+   * @param bound - the length the whole route has to stay under to be of use
+   * @return the route, or null if there is none under bound
+   */
+  private static Candidate spurPath( CompactGraph g, SearchContext ctx, SearchContext toEnd, double radius,
+                                     Candidate root, int i, int spur, int target,
+                                     int[] bannedNext, int bannedCount, double bound ) {
+    double rootLength = root == null ? 0 : root.lengths[i];
+    double limit = bound - rootLength;
+    ctx.reset( g.nodeCount );
+    ctx.update( spur, 0, spur );
+    DistanceHeap q = ctx.heap;
+    q.add( spur, lowerBound( g, toEnd, radius, spur, target ) );
+    
+    boolean reached = false;
+    while( !q.isEmpty() && q.peekKey() < limit ) {
+      int u = q.poll();
+      
+      if( ctx.isSettled( u ) ) continue; //stale entry
+      ctx.settle( u );
+      if( u == target ) {
+        reached = true;
+        break;
+      }
+      
+      double d = ctx.distance( u );
+      for( int a = g.offsets[u]; a < g.offsets[u + 1]; a++ ) {
+        int v = g.targets[a];
+        if( ctx.isBlocked( v ) || (u == spur && contains( bannedNext, bannedCount, v )) ) continue;
+        double altWeight = d + g.lengths[a];
+        
+        if( altWeight < ctx.distance( v ) ) {
+          ctx.update( v, altWeight, u );
+          q.add( v, altWeight + lowerBound( g, toEnd, radius, v, target ) );
+        }
+      }
+    }
+    if( !reached )
+      return null;
+    
+    //root up to the spur vertex, then the path found back from the target
+    int spurNodes = 1;
+    for( int v = target; v != spur; v = ctx.parent( v ) )
+      spurNodes++;
+    Candidate c = new Candidate( i + spurNodes );
+    for( int j = 0; j < i; j++ ) {
+      c.ids[j] = root.ids[j];
+      c.lengths[j] = root.lengths[j];
+    }
+    int j = i + spurNodes;
+    for( int v = target; j > i; v = ctx.parent( v ) ) {
+      j--;
+      c.ids[j] = v;
+      c.lengths[j] = rootLength + ctx.distance( v );
+    }
+    c.length = c.lengths[c.ids.length - 1];
+    return c;
+  }
+  
+  /*
+   * A lower bound on the distance from a vertex to the target, from a backward search
+   * from the target that settled every vertex closer than radius. Vertices it did not
+   * settle are at least radius away, and never closer than the great circle distance.
+   * The bound is consistent, so A* never has to settle a vertex twice.
+   */
+  private static double lowerBound( CompactGraph g, SearchContext toEnd, double radius, int v, int target ) {
+    if( toEnd.isSettled( v ) )
+      return toEnd.distance( v );
+    return Math.max( radius, g.greatCircleDistance( v, target ) );
+  }
+  
+  /*
+   * @return true if v is one of the first count entries of values
+   */
+  private static boolean contains( int[] values, int count, int v ) {
+    for( int i = 0; i < count; i++ ) {
+      if( values[i] == v )
+        return true;
+    }
+    return false;
+  }
+  
+  /*
+   * Runs a point-to-point search with the given algorithm.
+   * 
+   * @param g - the compressed adjacency arrays
+   * @param ctx - the search state to use
+   * @param start - the id of the start vertex
+   * @param end - the id of the end vertex
+   * @param mode - the search algorithm to use
+   * @return the shortest path of nodes from start node to end node
+   */
+  private ArrayList<Node> search( CompactGraph g, SearchContext ctx, int start, int end, RouteMode mode ) {
+    switch( mode ) {
+      case ASTAR:
+        aStar( g, ctx, start, end, null );
+        break;
+      case ALT:
+        aStar( g, ctx, start, end, landmarks() );
+        break;
+      case BIDIRECTIONAL:
+        return getBidirectionalPath( ctx, bidirectional( g, ctx, start, end ), end );
+      case CH:
+        ContractionHierarchy h = contractionHierarchy();
+        int meet = h.query( ctx, start, end );
+        if( meet == -1 )
+          return getBidirectionalPath( ctx, meet, end );
+        return getPath( vertices.get( start ), h.getPathEdges( ctx, meet ) );
+      default:
+        dijkstra( g, ctx, start, end );
+    }
+    return getPath( ctx, end );
+  }
+  
+  /*
+   * Gives every thread its own SearchContext for this graph.
+   */
+  private class ContextLocal extends ThreadLocal<SearchContext> {
+    protected SearchContext initialValue() {
+      return newSearchContext();
+    }
+  }
+  
+  /*
+   * Fills the rows of a distance matrix for a range of sources, splitting the
+   * range in half until each task has a single source to search from.
+   */
+  private static class MatrixTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    
+    private final CompactGraph g;
+    private final ThreadLocal<SearchContext> contexts; //search state of each worker thread
+    private final RoutingMetrics metrics; //or null
+    private final int[] sources, targets;
+    private final boolean[] isTarget;
+    private final int targetCount;
+    private final double[] matrix;
+    private final int from, to; //range of source indexes to fill
+    
+    MatrixTask( CompactGraph g, ThreadLocal<SearchContext> contexts, RoutingMetrics metrics,
+                int[] sources, int[] targets, boolean[] isTarget, int targetCount,
+                double[] matrix, int from, int to ) {
+      this.g = g;
+      this.contexts = contexts;
+      this.metrics = metrics;
+      this.sources = sources;
+      this.targets = targets;
+      this.isTarget = isTarget;
+      this.targetCount = targetCount;
+      this.matrix = matrix;
+      this.from = from;
+      this.to = to;
+    }
+    
+    protected void compute() {
+      if( to - from > 1 ) {
+        int mid = (from + to) >>> 1;
+        invokeAll( new MatrixTask( g, contexts, metrics, sources, targets, isTarget, targetCount, matrix, from, mid ),
+                   new MatrixTask( g, contexts, metrics, sources, targets, isTarget, targetCount, matrix, mid, to ) );
+        return;
+      }
+      
+      fill();
+    }
+    
+    /*
+     * Fills the rows of the range on the calling thread, giving up between rows
+     * (and every few thousand settled vertices within one) if it is interrupted.
+     */
+    void fill() {
+      SearchContext ctx = contexts.get();
+      for( int i = from; i < to; i++ ) {
+        if( Thread.currentThread().isInterrupted() )
+          throw new CancellationException( "Search interrupted" );
+        long t = startQuery( metrics, ctx );
+        dijkstra( g, ctx, sources[i], isTarget, targetCount );
+        endQuery( metrics, "matrix", ctx, t );
+        int row = i * targets.length;
+        for( int j = 0; j < targets.length; j++ )
+          matrix[row + j] = ctx.distance( targets[j] );
+      }
+    }
+  }
+  
+  /*
+   * A route found by kShortestPaths, as vertex ids. Two candidates are equal
+   * if they visit the same vertices in the same order.
+   */
+  private static class Candidate {
+    final int[] ids; //vertices along the route
+    final double[] lengths; //distance along the route to each vertex
+    double length; //length of the whole route
+    
+    Candidate( int size ) {
+      ids = new int[size];
+      lengths = new double[size];
+    }
+    
+    /*
+     * @return true if this route starts with the first i + 1 vertices of other
+     */
+    boolean sharesRoot( Candidate other, int i ) {
+      for( int j = 0; j <= i; j++ ) {
+        if( ids[j] != other.ids[j] )
+          return false;
+      }
+      return true;
+    }
+    
+    public boolean equals( Object o ) {
+      return o instanceof Candidate && Arrays.equals( ids, ((Candidate)o).ids );
+    }
+    
+    public int hashCode() {
+      return Arrays.hashCode( ids );
+    }
   }
   
   /* Testing driver.*/
-  public static void main( String[] args ) {
+  public static void main( String[] args ) throws IOException {
+    if( args.length > 0 && args[0].equals( "batch" ) ) {
+      BatchRouter.main( Arrays.copyOfRange( args, 1, args.length ) );
+      return;
+    }
+    
     WendyGraph w = new WendyGraph( "wellesleycoord.txt" );
     System.out.println( w );
     
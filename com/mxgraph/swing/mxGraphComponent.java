@@ -64,6 +64,8 @@ import com.mxgraph.swing.handler.mxSelectionCellsHandler;
 import com.mxgraph.swing.handler.mxVertexHandler;
 import com.mxgraph.swing.util.mxCellOverlay;
 import com.mxgraph.swing.util.mxICellOverlay;
+import com.mxgraph.swing.util.mxRouteOverlay;
+import com.mxgraph.swing.util.mxTiledBackground;
 import com.mxgraph.swing.view.mxCellEditor;
 import com.mxgraph.swing.view.mxICellEditor;
 import com.mxgraph.swing.view.mxInteractiveCanvas;
@@ -248,6 +250,18 @@ public class mxGraphComponent extends JScrollPane implements Printable
 	 */
 	protected ImageIcon backgroundImage;
 
+	/**
+	 * Specifies the tiled background to be painted instead of the background
+	 * image. Default is null.
+	 */
+	protected mxTiledBackground tiledBackground;
+
+	/**
+	 * Specifies the size of the background image relative to the graph, in
+	 * addition to the scale of the view. Default is 1.
+	 */
+	protected double backgroundScale = 1;
+
 	/**
 	 * Background page format.
 	 */
@@ -489,6 +503,11 @@ public class mxGraphComponent extends JScrollPane implements Printable
 	 */
 	protected Hashtable<Object, mxICellOverlay[]> overlays = new Hashtable<Object, mxICellOverlay[]>();
 
+	/**
+	 * Holds the routes painted above the graph, see addRouteOverlay.
+	 */
+	protected List<mxRouteOverlay> routeOverlays = new ArrayList<mxRouteOverlay>();
+
 	/**
 	 * Boolean flag to disable centering after the first time.
 	 */
@@ -1018,6 +1037,55 @@ public class mxGraphComponent extends JScrollPane implements Printable
 		firePropertyChange("backgroundImage", oldValue, backgroundImage);
 	}
 
+	/**
+	 * Returns the tiled background or null.
+	 */
+	public mxTiledBackground getTiledBackground()
+	{
+		return tiledBackground;
+	}
+
+	/**
+	 * Sets a tiled background, which is painted instead of the background
+	 * image. Only the tiles in the visible area are drawn, at the resolution
+	 * closest to the current scale, so large images stay cheap to pan and
+	 * zoom.
+	 * 
+	 * @param value Tiled background to paint, or null.
+	 */
+	public void setTiledBackground(mxTiledBackground value)
+	{
+		mxTiledBackground oldValue = tiledBackground;
+		tiledBackground = value;
+
+		firePropertyChange("tiledBackground", oldValue, tiledBackground);
+		graphControl.repaint();
+	}
+
+	/**
+	 * Returns the size of the background image relative to the graph.
+	 */
+	public double getBackgroundScale()
+	{
+		return backgroundScale;
+	}
+
+	/**
+	 * Sets the size of the background image relative to the graph, for
+	 * example when the cells are laid out for a larger drawing than the
+	 * image. The view scale still applies on top of it.
+	 * 
+	 * @param value Size of the background relative to the graph.
+	 */
+	public void setBackgroundScale(double value)
+	{
+		double oldValue = backgroundScale;
+		backgroundScale = value;
+
+		firePropertyChange("backgroundScale", oldValue, backgroundScale);
+		graphControl.repaint();
+	}
+
 	/**
 	 * @return the pageVisible
 	 */
@@ -3141,6 +3209,92 @@ public class mxGraphComponent extends JScrollPane implements Printable
 		return (warning.length() > 0 || !isValid) ? warning.toString() : null;
 	}
 
+	/**
+	 * Adds a route to be painted above the graph. Unlike changing cell styles,
+	 * this does not change the model, record undoable edits or revalidate the
+	 * view; only the area of the route is repainted.
+	 * 
+	 * @param route
+	 *            Route to be painted.
+	 * @return Returns the route.
+	 */
+	public mxRouteOverlay addRouteOverlay(mxRouteOverlay route)
+	{
+		routeOverlays.add(route);
+		repaintRouteOverlay(route);
+
+		return route;
+	}
+
+	/**
+	 * Removes the given route and repaints the area it covered.
+	 * 
+	 * @param route
+	 *            Route to be removed.
+	 */
+	public void removeRouteOverlay(mxRouteOverlay route)
+	{
+		if (routeOverlays.remove(route))
+		{
+			repaintRouteOverlay(route);
+		}
+	}
+
+	/**
+	 * Removes all routes.
+	 */
+	public void clearRouteOverlays()
+	{
+		mxRouteOverlay[] routes = getRouteOverlays();
+		routeOverlays.clear();
+
+		for (int i = 0; i < routes.length; i++)
+		{
+			repaintRouteOverlay(routes[i]);
+		}
+	}
+
+	/**
+	 * Returns the routes painted above the graph.
+	 */
+	public mxRouteOverlay[] getRouteOverlays()
+	{
+		return routeOverlays.toArray(new mxRouteOverlay[routeOverlays.size()]);
+	}
+
+	/**
+	 * Repaints the area of the graph control the given route covers.
+	 */
+	protected void repaintRouteOverlay(mxRouteOverlay route)
+	{
+		Rectangle rect = route.getBounds(graph.getView());
+
+		if (rect != null)
+		{
+			graphControl.repaint(rect);
+		}
+	}
+
+	/**
+	 * Paints all routes above the graph. Called by the graph control after the
+	 * graph has been painted.
+	 */
+	protected void paintRouteOverlays(Graphics g)
+	{
+		if (!routeOverlays.isEmpty())
+		{
+			Graphics2D g2 = (Graphics2D) g;
+			Color previousColor = g2.getColor();
+
+			for (mxRouteOverlay route : routeOverlays)
+			{
+				route.paint(g2, graph.getView());
+			}
+
+			g2.setColor(previousColor);
+		}
+	}
+
 	/**
 	 * Adds an overlay for the specified cell. This method fires an addoverlay
 	 * event and returns the new overlay.
@@ -3598,16 +3752,26 @@ public class mxGraphComponent extends JScrollPane implements Printable
 	 */
 	protected void paintBackgroundImage(Graphics g)
 	{
-		if (backgroundImage != null)
+		if (tiledBackground != null)
+		{
+			mxPoint translate = graph.getView().getTranslate();
+			double scale = graph.getView().getScale();
+
+			tiledBackground.paint(g, translate.getX() * scale,
+					translate.getY() * scale, scale * backgroundScale,
+					graphControl);
+		}
+		else if (backgroundImage != null)
 		{
 			mxPoint translate = graph.getView().getTranslate();
 			double scale = graph.getView().getScale();
+			double imageScale = scale * backgroundScale;
 
 			g.drawImage(backgroundImage.getImage(),
 					(int) (translate.getX() * scale),
 					(int) (translate.getY() * scale),
-					(int) (backgroundImage.getIconWidth() * scale),
-					(int) (backgroundImage.getIconHeight() * scale), this);
+					(int) (backgroundImage.getIconWidth() * imageScale),
+					(int) (backgroundImage.getIconHeight() * imageScale), this);
 		}
 	}
 
@@ -4272,6 +4436,9 @@ public class mxGraphComponent extends JScrollPane implements Printable
 				}
 			}
 
+			// Paints the routes above the graph
+			paintRouteOverlays(g);
+
 			eventSource.fireEvent(new mxEventObject(mxEvent.PAINT, "g", g));
 		}
 
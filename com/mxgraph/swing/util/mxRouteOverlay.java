@@ -0,0 +1,293 @@
+package com.mxgraph.swing.util;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Stroke;
+import java.awt.geom.Path2D;
+import java.util.List;
+
+import com.mxgraph.util.mxPoint;
+import com.mxgraph.view.mxCellState;
+import com.mxgraph.view.mxGraphView;
+
+/**
+ * A route painted by mxGraphComponent above the graph without changing the
+ * model. A route is either a sequence of cells or a sequence of points in
+ * graph coordinates. For cells, the line runs through the centers of the
+ * vertices (or along the points of edges) and each vertex is highlighted.
+ *
+ * Positions are read from the cached cell states of the view when the route
+ * is painted, so adding or removing a route is O(length of the route): no
+ * styles are changed, no undoable edits are recorded and the view is not
+ * revalidated.
+ *
+ * @see com.mxgraph.swing.mxGraphComponent#addRouteOverlay(mxRouteOverlay)
+ */
+public class mxRouteOverlay
+{
+
+	/**
+	 * Holds the cells along the route, or null if the route is given as points.
+	 */
+	protected Object[] cells;
+
+	/**
+	 * Holds the points along the route in graph coordinates, or null if the
+	 * route is given as cells.
+	 */
+	protected mxPoint[] points;
+
+	/**
+	 * Holds the color of the route. Default is red.
+	 */
+	protected Color color = Color.RED;
+
+	/**
+	 * Holds the width of the line at scale 1. Default is 4.
+	 */
+	protected float strokeWidth = 4;
+
+	/**
+	 * Specifies if vertices along the route are highlighted. Default is true.
+	 */
+	protected boolean verticesHighlighted = true;
+
+	/**
+	 * Constructs a route through the given cells.
+	 *
+	 * @param cells Vertices (and optionally edges) along the route, in order.
+	 */
+	public mxRouteOverlay(Object[] cells)
+	{
+		this.cells = cells;
+	}
+
+	/**
+	 * Constructs a route through the given points.
+	 *
+	 * @param points Points along the route in graph coordinates, in order.
+	 */
+	public mxRouteOverlay(mxPoint[] points)
+	{
+		this.points = points;
+	}
+
+	/**
+	 * Returns the cells along the route or null.
+	 */
+	public Object[] getCells()
+	{
+		return cells;
+	}
+
+	/**
+	 * Returns the points along the route or null.
+	 */
+	public mxPoint[] getPoints()
+	{
+		return points;
+	}
+
+	/**
+	 * Returns the color of the route.
+	 */
+	public Color getColor()
+	{
+		return color;
+	}
+
+	/**
+	 * Sets the color of the route.
+	 */
+	public void setColor(Color color)
+	{
+		this.color = color;
+	}
+
+	/**
+	 * Returns the width of the line at scale 1.
+	 */
+	public float getStrokeWidth()
+	{
+		return strokeWidth;
+	}
+
+	/**
+	 * Sets the width of the line at scale 1.
+	 */
+	public void setStrokeWidth(float strokeWidth)
+	{
+		this.strokeWidth = strokeWidth;
+	}
+
+	/**
+	 * Returns true if vertices along the route are highlighted.
+	 */
+	public boolean isVerticesHighlighted()
+	{
+		return verticesHighlighted;
+	}
+
+	/**
+	 * Sets if vertices along the route are highlighted.
+	 */
+	public void setVerticesHighlighted(boolean verticesHighlighted)
+	{
+		this.verticesHighlighted = verticesHighlighted;
+	}
+
+	/**
+	 * Paints the route using the current cell states of the given view.
+	 * Cells without a state (for example hidden cells) are skipped.
+	 *
+	 * @param g Graphics to paint into, in the coordinates of the graph control.
+	 * @param view View that holds the cell states and the scale.
+	 */
+	public void paint(Graphics2D g, mxGraphView view)
+	{
+		Path2D.Double line = new Path2D.Double();
+		boolean empty = true;
+		Stroke previousStroke = g.getStroke();
+		Object previousAntiAlias = g
+				.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+				RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setColor(color);
+
+		if (cells != null)
+		{
+			Color fill = new Color(color.getRed(), color.getGreen(),
+					color.getBlue(), 96);
+			g.setStroke(new BasicStroke(2));
+
+			for (int i = 0; i < cells.length; i++)
+			{
+				mxCellState state = view.getState(cells[i]);
+
+				if (state == null)
+				{
+					continue;
+				}
+
+				List<mxPoint> pts = state.getAbsolutePoints();
+
+				if (pts != null && pts.size() > 0
+						&& view.getGraph().getModel().isEdge(cells[i]))
+				{
+					for (mxPoint p : pts)
+					{
+						empty = lineTo(line, empty, p.getX(), p.getY());
+					}
+				}
+				else
+				{
+					empty = lineTo(line, empty, state.getCenterX(),
+							state.getCenterY());
+
+					if (verticesHighlighted)
+					{
+						Rectangle r = state.getRectangle();
+						g.setColor(fill);
+						g.fillRect(r.x, r.y, r.width, r.height);
+						g.setColor(color);
+						g.drawRect(r.x, r.y, r.width, r.height);
+					}
+				}
+			}
+		}
+		else if (points != null)
+		{
+			mxPoint t = view.getTranslate();
+			double s = view.getScale();
+
+			for (int i = 0; i < points.length; i++)
+			{
+				empty = lineTo(line, empty, (points[i].getX() + t.getX()) * s,
+						(points[i].getY() + t.getY()) * s);
+			}
+		}
+
+		if (!empty)
+		{
+			g.setStroke(new BasicStroke((float) (strokeWidth * view.getScale()),
+					BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+			g.draw(line);
+		}
+
+		g.setStroke(previousStroke);
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, previousAntiAlias);
+	}
+
+	/**
+	 * Adds a point to the line, starting the line if it is empty.
+	 *
+	 * @return false, the line is no longer empty
+	 */
+	protected boolean lineTo(Path2D.Double line, boolean empty, double x,
+			double y)
+	{
+		if (empty)
+		{
+			line.moveTo(x, y);
+		}
+		else
+		{
+			line.lineTo(x, y);
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the area the route covers in the given view, including the
+	 * width of the line, or null if none of it is visible.
+	 *
+	 * @param view View that holds the cell states and the scale.
+	 */
+	public Rectangle getBounds(mxGraphView view)
+	{
+		Rectangle bounds = null;
+
+		if (cells != null)
+		{
+			for (int i = 0; i < cells.length; i++)
+			{
+				mxCellState state = view.getState(cells[i]);
+
+				if (state != null)
+				{
+					Rectangle r = state.getBoundingBox() != null ? state
+							.getBoundingBox().getRectangle() : state
+							.getRectangle();
+					bounds = (bounds == null) ? r : bounds.union(r);
+				}
+			}
+		}
+		else if (points != null)
+		{
+			mxPoint t = view.getTranslate();
+			double s = view.getScale();
+
+			for (int i = 0; i < points.length; i++)
+			{
+				Rectangle r = new Rectangle(
+						(int) Math.floor((points[i].getX() + t.getX()) * s),
+						(int) Math.floor((points[i].getY() + t.getY()) * s), 1,
+						1);
+				bounds = (bounds == null) ? r : bounds.union(r);
+			}
+		}
+
+		if (bounds != null)
+		{
+			int grow = (int) Math.ceil(strokeWidth * view.getScale()) + 2;
+			bounds.grow(grow, grow);
+		}
+
+		return bounds;
+	}
+
+}
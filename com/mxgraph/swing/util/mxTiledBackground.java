@@ -0,0 +1,652 @@
+package com.mxgraph.swing.util;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.JComponent;
+
+/**
+ * A background image for mxGraphComponent that is drawn from square tiles
+ * instead of scaling the whole image on every paint.
+ *
+ * The tiles form a pyramid: level 0 has the full resolution of the image,
+ * and each further level halves it, up to the level where the image fits in
+ * one tile. When painting, the level closest to the current scale is
+ * picked and only the tiles that intersect the clip are drawn.
+ *
+ * Tiles are decoded from the source image on background threads, reading
+ * only the region of the tile, and kept in an LRU cache bounded in bytes.
+ * Until a tile arrives, the covering part of a coarser tile that is already
+ * cached is drawn in its place. If a tile directory is set, decoded tiles
+ * are also written there as level/column_row.png and read back on later
+ * runs, so the pyramid only has to be built once.
+ *
+ * @see com.mxgraph.swing.mxGraphComponent#setTiledBackground(mxTiledBackground)
+ */
+public class mxTiledBackground
+{
+
+	/**
+	 * Holds the width and height of a tile in pixels.
+	 */
+	public static final int TILE_SIZE = 256;
+
+	/**
+	 * Holds the source image.
+	 */
+	protected File source;
+
+	/**
+	 * Holds the size of the source image in pixels.
+	 */
+	protected int width, height;
+
+	/**
+	 * Holds the coarsest level of the pyramid.
+	 */
+	protected int maxLevel;
+
+	/**
+	 * Holds the directory tiles are read from and written to, or null.
+	 */
+	protected File tileDirectory;
+
+	/**
+	 * Holds the most bytes of decoded tiles to keep.
+	 */
+	protected long maxBytes;
+
+	/**
+	 * Holds the decoded tiles by key, least recently used first.
+	 */
+	protected LinkedHashMap<Long, BufferedImage> cache = new LinkedHashMap<Long, BufferedImage>(
+			64, 0.75f, true);
+
+	/**
+	 * Holds the bytes of the tiles in the cache.
+	 */
+	protected long bytes;
+
+	/**
+	 * Maps the tiles that are being or waiting to be decoded to their
+	 * requests, which hold the last paint that wanted them and where.
+	 */
+	protected HashMap<Long, TileRequest> pending = new HashMap<Long, TileRequest>();
+
+	/**
+	 * Counts the paints, so requests for tiles that scrolled out of view can
+	 * be dropped.
+	 */
+	protected long paintCount;
+
+	/**
+	 * Decodes tiles in the background.
+	 */
+	protected ExecutorService decoder;
+
+	/**
+	 * Constructs a tiled background for the given image with a 64 MB cache
+	 * and two decoding threads. Only the size of the image is read here.
+	 *
+	 * @param source Image file in a format ImageIO can read.
+	 * @throws IOException if the image cannot be read.
+	 */
+	public mxTiledBackground(File source) throws IOException
+	{
+		this(source, 64L << 20, 2);
+	}
+
+	/**
+	 * Constructs a tiled background for the given image.
+	 *
+	 * @param source Image file in a format ImageIO can read.
+	 * @param maxBytes Most bytes of decoded tiles to keep in memory.
+	 * @param threads Number of threads that decode tiles.
+	 * @throws IOException if the image cannot be read.
+	 */
+	public mxTiledBackground(File source, long maxBytes, int threads)
+			throws IOException
+	{
+		this.source = source;
+		this.maxBytes = maxBytes;
+
+		ImageReader reader = openReader(source);
+
+		try
+		{
+			width = reader.getWidth(0);
+			height = reader.getHeight(0);
+		}
+		finally
+		{
+			closeReader(reader);
+		}
+
+		while ((Math.max(width, height) >> maxLevel) > TILE_SIZE)
+		{
+			maxLevel++;
+		}
+
+		decoder = Executors.newFixedThreadPool(threads, new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "tile-decoder");
+				t.setDaemon(true);
+				t.setPriority(Thread.NORM_PRIORITY - 1);
+
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Returns the width of the image in pixels.
+	 */
+	public int getWidth()
+	{
+		return width;
+	}
+
+	/**
+	 * Returns the height of the image in pixels.
+	 */
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/**
+	 * Returns the coarsest level of the pyramid.
+	 */
+	public int getMaxLevel()
+	{
+		return maxLevel;
+	}
+
+	/**
+	 * Returns the directory tiles are kept in, or null.
+	 */
+	public File getTileDirectory()
+	{
+		return tileDirectory;
+	}
+
+	/**
+	 * Sets the directory decoded tiles are written to and read from, so the
+	 * pyramid survives restarts. The directory is created when the first tile
+	 * is written.
+	 *
+	 * @param tileDirectory Directory for the tiles, or null to keep tiles in
+	 * memory only.
+	 */
+	public void setTileDirectory(File tileDirectory)
+	{
+		this.tileDirectory = tileDirectory;
+	}
+
+	/**
+	 * Returns the number of bytes of decoded tiles in memory.
+	 */
+	public synchronized long getCachedBytes()
+	{
+		return bytes;
+	}
+
+	/**
+	 * Returns the number of decoded tiles in memory.
+	 */
+	public synchronized int getCachedTileCount()
+	{
+		return cache.size();
+	}
+
+	/**
+	 * Returns the level whose resolution is closest to, but not below, the
+	 * given scale.
+	 *
+	 * @param scale Scale the image is drawn at.
+	 */
+	public int getLevel(double scale)
+	{
+		int level = 0;
+
+		while (level < maxLevel && scale * (1 << (level + 1)) <= 1)
+		{
+			level++;
+		}
+
+		return level;
+	}
+
+	/**
+	 * Paints the tiles that intersect the clip of the given graphics. Tiles
+	 * that are not decoded yet are requested, and the component is repainted
+	 * when they arrive.
+	 *
+	 * @param g Graphics to paint into.
+	 * @param x Horizontal position of the top left corner of the image.
+	 * @param y Vertical position of the top left corner of the image.
+	 * @param scale Scale to draw the image at.
+	 * @param component Component to repaint when tiles arrive.
+	 */
+	public void paint(Graphics g, double x, double y, double scale,
+			Component component)
+	{
+		Rectangle clip = g.getClipBounds();
+
+		if (clip == null)
+		{
+			clip = new Rectangle(0, 0, component.getWidth(),
+					component.getHeight());
+		}
+
+		int level = getLevel(scale);
+		int span = TILE_SIZE << level; // source pixels per tile
+		int col0 = Math.max(0, (int) Math.floor((clip.x - x) / scale / span));
+		int row0 = Math.max(0, (int) Math.floor((clip.y - y) / scale / span));
+		int col1 = Math.min((width - 1) / span,
+				(int) Math.floor((clip.x + clip.width - x) / scale / span));
+		int row1 = Math.min((height - 1) / span,
+				(int) Math.floor((clip.y + clip.height - y) / scale / span));
+
+		Graphics2D g2 = (Graphics2D) g;
+		Object previousInterpolation = g2
+				.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+		g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+				RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		long paint;
+
+		synchronized (this)
+		{
+			paint = ++paintCount;
+		}
+
+		for (int row = row0; row <= row1; row++)
+		{
+			for (int col = col0; col <= col1; col++)
+			{
+				// Destination corners are rounded from the source edges, so
+				// neighbouring tiles meet without gaps
+				int sx = col * span, sy = row * span;
+				int sw = Math.min(span, width - sx), sh = Math.min(span, height - sy);
+				int dx1 = (int) Math.round(x + sx * scale);
+				int dy1 = (int) Math.round(y + sy * scale);
+				int dx2 = (int) Math.round(x + (sx + sw) * scale);
+				int dy2 = (int) Math.round(y + (sy + sh) * scale);
+
+				BufferedImage tile = getTile(level, col, row, paint,
+						new Rectangle(dx1, dy1, dx2 - dx1, dy2 - dy1), component);
+
+				if (tile != null)
+				{
+					g2.drawImage(tile, dx1, dy1, dx2, dy2, 0, 0, tile.getWidth(),
+							tile.getHeight(), null);
+				}
+				else
+				{
+					paintCoarser(g2, level, sx, sy, sw, sh, dx1, dy1, dx2, dy2);
+				}
+			}
+		}
+
+		if (previousInterpolation != null)
+		{
+			g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+					previousInterpolation);
+		}
+	}
+
+	/**
+	 * Draws the part of the finest cached coarser tile that covers a missing
+	 * tile, if there is one.
+	 */
+	protected void paintCoarser(Graphics2D g, int level, int sx, int sy,
+			int sw, int sh, int dx1, int dy1, int dx2, int dy2)
+	{
+		for (int coarse = level + 1; coarse <= maxLevel; coarse++)
+		{
+			int span = TILE_SIZE << coarse;
+			BufferedImage tile;
+
+			synchronized (this)
+			{
+				tile = cache.get(key(coarse, sx / span, sy / span));
+			}
+
+			if (tile != null)
+			{
+				// Source rectangle of the missing tile in the coarse tile's pixels
+				int ox = sx % span, oy = sy % span;
+				int sx1 = ox >> coarse, sy1 = oy >> coarse;
+				int sx2 = Math.min(tile.getWidth(), (ox + sw + (1 << coarse) - 1) >> coarse);
+				int sy2 = Math.min(tile.getHeight(), (oy + sh + (1 << coarse) - 1) >> coarse);
+				g.drawImage(tile, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, null);
+
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns a decoded tile, or null after requesting it if it is not in the
+	 * cache.
+	 *
+	 * @param bounds Where the tile is drawn in the component.
+	 */
+	protected synchronized BufferedImage getTile(int level, int col, int row,
+			long paint, Rectangle bounds, Component component)
+	{
+		long key = key(level, col, row);
+		BufferedImage tile = cache.get(key);
+
+		if (tile == null)
+		{
+			TileRequest request = pending.get(key);
+
+			if (request == null)
+			{
+				request = new TileRequest(level, col, row, component);
+				pending.put(key, request);
+				decoder.execute(request);
+			}
+
+			request.paint = paint;
+			request.bounds = bounds;
+		}
+
+		return tile;
+	}
+
+	/**
+	 * Adds a decoded tile to the cache and evicts least recently used tiles
+	 * until the cache is within its byte bound again.
+	 */
+	protected synchronized void putTile(long key, BufferedImage tile)
+	{
+		BufferedImage old = cache.put(key, tile);
+
+		if (old != null)
+		{
+			bytes -= tileBytes(old);
+		}
+
+		bytes += tileBytes(tile);
+		Iterator<Map.Entry<Long, BufferedImage>> it = cache.entrySet()
+				.iterator();
+
+		while (bytes > maxBytes && cache.size() > 1 && it.hasNext())
+		{
+			Map.Entry<Long, BufferedImage> eldest = it.next();
+
+			if (eldest.getKey() != key)
+			{
+				bytes -= tileBytes(eldest.getValue());
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Drops every decoded tile from memory.
+	 */
+	public synchronized void clearCache()
+	{
+		cache.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Stops the decoding threads and drops the cache. The background cannot
+	 * be painted afterwards.
+	 */
+	public void dispose()
+	{
+		decoder.shutdownNow();
+		clearCache();
+	}
+
+	/**
+	 * Decodes one tile: from the tile directory if it is there, otherwise
+	 * from the region of the source image it covers.
+	 *
+	 * @param level Level of the tile.
+	 * @param col Column of the tile.
+	 * @param row Row of the tile.
+	 * @return Returns the tile image.
+	 */
+	public BufferedImage decodeTile(int level, int col, int row)
+			throws IOException
+	{
+		File file = (tileDirectory != null) ? new File(new File(tileDirectory,
+				String.valueOf(level)), col + "_" + row + ".png") : null;
+
+		if (file != null && file.isFile())
+		{
+			BufferedImage tile = ImageIO.read(file);
+
+			if (tile != null)
+			{
+				return tile;
+			}
+		}
+
+		int span = TILE_SIZE << level;
+		int sx = col * span, sy = row * span;
+		int sw = Math.min(span, width - sx), sh = Math.min(span, height - sy);
+
+		// Reads every other pixel of twice the tile's resolution and halves
+		// that with interpolation, which looks much smoother than subsampling
+		// straight to the tile's resolution
+		int step = Math.max(1, (1 << level) / 2);
+		ImageReader reader = openReader(source);
+		BufferedImage region;
+
+		try
+		{
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setSourceRegion(new Rectangle(sx, sy, sw, sh));
+			param.setSourceSubsampling(step, step, 0, 0);
+			region = reader.read(0, param);
+		}
+		finally
+		{
+			closeReader(reader);
+		}
+
+		int tw = Math.max(1, (sw + (1 << level) - 1) >> level);
+		int th = Math.max(1, (sh + (1 << level) - 1) >> level);
+		BufferedImage tile = new BufferedImage(tw, th,
+				BufferedImage.TYPE_INT_ARGB_PRE);
+		Graphics2D g = tile.createGraphics();
+
+		try
+		{
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+					RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.drawImage(region, 0, 0, tw, th, null);
+		}
+		finally
+		{
+			g.dispose();
+		}
+
+		if (file != null)
+		{
+			try
+			{
+				file.getParentFile().mkdirs();
+				ImageIO.write(tile, "png", file);
+			}
+			catch (IOException e)
+			{
+				// The tile is still shown, it is only not kept on disk
+			}
+		}
+
+		return tile;
+	}
+
+	/**
+	 * Returns a reader positioned at the first image of the given file.
+	 */
+	protected static ImageReader openReader(File file) throws IOException
+	{
+		ImageInputStream in = ImageIO.createImageInputStream(file);
+
+		if (in == null)
+		{
+			throw new IOException("Cannot open " + file);
+		}
+
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+
+		if (!readers.hasNext())
+		{
+			in.close();
+			throw new IOException("No image reader for " + file);
+		}
+
+		ImageReader reader = readers.next();
+		reader.setInput(in, true, true);
+
+		return reader;
+	}
+
+	/**
+	 * Closes the stream of a reader from openReader and disposes the reader.
+	 */
+	protected static void closeReader(ImageReader reader) throws IOException
+	{
+		Object in = reader.getInput();
+		reader.dispose();
+
+		if (in instanceof ImageInputStream)
+		{
+			((ImageInputStream) in).close();
+		}
+	}
+
+	/**
+	 * Returns the bytes a tile takes in memory.
+	 */
+	protected static long tileBytes(Image tile)
+	{
+		return 4L * tile.getWidth(null) * tile.getHeight(null);
+	}
+
+	/**
+	 * Returns the cache key of a tile.
+	 */
+	protected static long key(int level, int col, int row)
+	{
+		return ((long) level << 56) | ((long) col << 28) | row;
+	}
+
+	/**
+	 * Decodes a tile in the background, unless it scrolled out of view while
+	 * waiting, and repaints the component when it is done.
+	 *
+	 * A request is dropped only if neither of the last two paints wanted the
+	 * tile and the place it was last drawn is outside the visible area of the
+	 * component. Paints of a small clip elsewhere do not drop tiles that are
+	 * still on screen.
+	 */
+	protected class TileRequest implements Runnable
+	{
+
+		protected int level, col, row;
+
+		protected Component component;
+
+		/**
+		 * Number of the last paint that wanted the tile and where it was
+		 * drawn in the component. Guarded by the background.
+		 */
+		protected long paint;
+
+		protected Rectangle bounds;
+
+		public TileRequest(int level, int col, int row, Component component)
+		{
+			this.level = level;
+			this.col = col;
+			this.row = row;
+			this.component = component;
+		}
+
+		public void run()
+		{
+			long key = key(level, col, row);
+
+			synchronized (mxTiledBackground.this)
+			{
+				// Not wanted by either of the last two paints, nor on screen
+				if (paint < paintCount - 1 && !isVisible(bounds))
+				{
+					pending.remove(key);
+
+					return;
+				}
+			}
+
+			BufferedImage tile = null;
+
+			try
+			{
+				tile = decodeTile(level, col, row);
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+
+			synchronized (mxTiledBackground.this)
+			{
+				if (tile != null)
+				{
+					putTile(key, tile);
+				}
+
+				pending.remove(key);
+			}
+
+			if (tile != null)
+			{
+				component.repaint();
+			}
+		}
+
+		/**
+		 * Returns true if the given area of the component is visible.
+		 */
+		protected boolean isVisible(Rectangle area)
+		{
+			Rectangle visible = (component instanceof JComponent) ? ((JComponent) component)
+					.getVisibleRect() : new Rectangle(0, 0,
+					component.getWidth(), component.getHeight());
+
+			return area != null && visible.intersects(area);
+		}
+
+	}
+
+}